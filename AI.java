@@ -1,9 +1,23 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.Collections;
 
 /*
@@ -12,65 +26,488 @@ Travail Réalisé par Abdelouhab Yacine / Lemaitre Victor / Mohamed Amine /Moham
 
 /**
  * Class used to model the set of belief states already visited and to keep track of their values (in order to avoid visiting multiple times the same states)
+ * The belief states are stored in their frozen canonical form, and the values are stored divided by the sum of the probabilities of the belief state, so that they can be rescaled for a belief state whose probabilities are proportional.
+ * The set can be used by several threads at the same time.
  */
 class ExploredSet{
-	TreeMap<BeliefState, Float> exploredSet;
+	/**
+	 * Types of the values: the exact value, or a lower or upper bound of the value (see AI.and_search_bounded)
+	 */
+	public static final int EXACT = 0;
+	public static final int LOWER = 1;
+	public static final int UPPER = 2;
 
 	/**
-	 * construct an empty set
+	 * Depth of the values which a deeper search would not change (belief states where the game is over)
+	 */
+	public static final int FINAL = 127;
+
+	private static final int BUCKET = 4;
+	private static final int DEFAULT_CAPACITY = 1 << 18;
+
+	/**
+	 * Each entry is made of the 64 high bits of the fingerprint of the belief state, the 64 low bits xor the data, and the data, which packs
+	 * the value divided by the sum of the probabilities (bits 0 to 31), the depth (32 to 39), the type of the value (40 to 41), the best move plus one (42 to 44),
+	 * the age (45 to 52) and a bit set for the used entries (63). The xor allows the tasks of the parallel search to read and write the table without locks:
+	 * an entry partly written by a task does not match any key.
+	 */
+	private final long[] keys;
+	private final long[] data;
+	private final int buckets;
+	private int age;
+
+	/**
+	 * construct an empty set with the default capacity
 	 */
 	public ExploredSet() {
-		this.exploredSet = new TreeMap<BeliefState, Float>();
+		this(DEFAULT_CAPACITY);
 	}
 
 	/**
-	 * Search if a given state belongs to the explored set and returns its values if that is the case
+	 * construct an empty set
+	 * @param capacity maximal number of belief states in the set (rounded up to a power of two)
+	 */
+	public ExploredSet(int capacity) {
+		int entries = BUCKET;
+		while(entries < capacity) {
+			entries <<= 1;
+		}
+		this.keys = new long[2 * entries];
+		this.data = new long[entries];
+		this.buckets = entries / BUCKET - 1;
+		this.age = 0;
+	}
+
+	/**
+	 * Start a new search: the entries stored by the previous searches are replaced first
+	 */
+	public void newSearch() {
+		this.age = (this.age + 1) & 0xFF;
+	}
+
+	/**
+	 * Remove all the entries of the set
+	 */
+	public void clear() {
+		Arrays.fill(this.keys, 0);
+		Arrays.fill(this.data, 0);
+	}
+
+	/**
+	 * Search the entry of a belief state
+	 * @param state the belief state for which the search takes place
+	 * @return the data of the entry, with the best move given for the belief state itself (not its canonical form), or 0 if there is no entry
+	 */
+	public long probe(BeliefState state) {
+		long[] key = new long[2];
+		boolean mirrored = state.canonicalFingerprint(key);
+		int first = (int) (key[0] & this.buckets) * BUCKET;
+		for(int i = first; i < first + BUCKET; i++) {
+			long d = this.data[i];
+			if(d != 0 && this.keys[2 * i] == key[0] && (this.keys[2 * i + 1] ^ d) == key[1]) {
+				int move = ExploredSet.move(d);
+				if(mirrored && move >= 0) {
+					d = (d & ~(7L << 42)) | ((long) (6 - move + 1) << 42);
+				}
+				return d;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Search if a given state belongs to the explored set with an exact value computed deep enough, and returns its value if that is the case
 	 * @param state the state for which the search takes place
-	 * @return the value of the state if it belongs to the set, and null otherwise
+	 * @param depth the number of moves which remain to be searched from the state
+	 * @return the value of the state if it belongs to the set with an exact value searched at least at the given depth, and null otherwise
 	 */
-	public Float get(BeliefState state) {
-		Entry<BeliefState, Float> entry = this.exploredSet.ceilingEntry(state);
-		if(entry == null || state.compareTo(entry.getKey()) != 0) {
+	public Float get(BeliefState state, int depth) {
+		long d = this.probe(state);
+		if(d == 0 || ExploredSet.bound(d) != EXACT || ExploredSet.depth(d) < depth) {
 			return null;
 		}
-		return entry.getValue() * state.probaSum() / entry.getKey().probaSum();
+		return ExploredSet.value(d, state);
 	}
 
 	/**
-	 * Put a belief state and its corresponding value into the set
+	 * Put a belief state and its corresponding value into the set. When the set is full, the oldest and shallowest entry of the bucket of the belief state is replaced.
 	 * @param beliefState the belief state to be added
-	 * @param value the
+	 * @param value the value of the belief state, or a bound of it
+	 * @param depth the number of moves searched from the belief state to compute the value
+	 * @param bound the type of the value (EXACT, LOWER or UPPER)
+	 * @param move the best move of the belief state, or -1 if it is not known
+	 */
+	public void put(BeliefState beliefState, float value, int depth, int bound, int move) {
+		long[] key = new long[2];
+		if(beliefState.canonicalFingerprint(key) && move >= 0) {
+			move = 6 - move;
+		}
+		float sum = beliefState.probaSum();
+		long d = (Float.floatToIntBits(value / sum) & 0xFFFFFFFFL) | ((long) Math.min(depth, FINAL) << 32) | ((long) bound << 40)
+				| ((long) (move + 1) << 42) | ((long) this.age << 45) | (1L << 63);
+		this.put(key, d);
+	}
+
+	private void put(long[] key, long d) {
+		int depth = ExploredSet.depth(d);
+		int bound = ExploredSet.bound(d);
+		int first = (int) (key[0] & this.buckets) * BUCKET;
+		int victim = -1;
+		int victimScore = Integer.MAX_VALUE;
+		for(int i = first; i < first + BUCKET; i++) {
+			long old = this.data[i];
+			if(old == 0) {
+				if(victim < 0 || this.data[victim] != 0) {
+					victim = i;
+					victimScore = Integer.MIN_VALUE;
+				}
+				continue;
+			}
+			if(this.keys[2 * i] == key[0] && (this.keys[2 * i + 1] ^ old) == key[1]) {
+				// A value of the same belief state is only replaced by a value at least as deep, or by an exact value, unless it is from a previous search
+				if(depth >= ExploredSet.depth(old) || (bound == EXACT && ExploredSet.bound(old) != EXACT) || ExploredSet.age(old) != this.age) {
+					this.store(i, key, d);
+				}
+				return;
+			}
+			// Depth-preferred replacement: the entries of the previous searches lose 4 moves of depth per search
+			int score = ExploredSet.depth(old) - 4 * ((this.age - ExploredSet.age(old)) & 0xFF);
+			if(score < victimScore) {
+				victim = i;
+				victimScore = score;
+			}
+		}
+		this.store(victim, key, d);
+	}
+
+	private void store(int i, long[] key, long d) {
+		this.data[i] = d;
+		this.keys[2 * i] = key[0];
+		this.keys[2 * i + 1] = key[1] ^ d;
+	}
+
+	/**
+	 * @return the number of belief states in the set (computed by scanning the table)
+	 */
+	public int size() {
+		int size = 0;
+		for(int i = 0; i < this.data.length; i++) {
+			if(this.data[i] != 0) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Write the entries of the set (see AI.saveCaches): 3 longs per entry, the fingerprint and the data
+	 * @param out the stream where the entries are written
+	 * @return the number of entries written
+	 */
+	public int write(DataOutputStream out) throws IOException {
+		int n = 0;
+		for(int i = 0; i < this.data.length; i++) {
+			long d = this.data[i];
+			if(d != 0) {
+				out.writeLong(this.keys[2 * i]);
+				out.writeLong(this.keys[2 * i + 1] ^ d);
+				out.writeLong(d);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Add entries written by write. They are considered as stored by the previous search, so that they are replaced first.
+	 * @param in the buffer where the entries are read
+	 * @param n the number of entries
+	 */
+	public void read(LongBuffer in, int n) {
+		long[] key = new long[2];
+		long previous = (long) ((this.age - 1) & 0xFF) << 45;
+		for(int i = 0; i < n; i++) {
+			key[0] = in.get();
+			key[1] = in.get();
+			this.put(key, (in.get() & ~(0xFFL << 45)) | previous);
+		}
+	}
+
+	/**
+	 * @return the value of an entry (see probe) for the given belief state
+	 */
+	public static float value(long data, BeliefState state) {
+		return Float.intBitsToFloat((int) data) * state.probaSum();
+	}
+
+	public static int depth(long data) {
+		return (int) (data >>> 32) & 0xFF;
+	}
+
+	public static int bound(long data) {
+		return (int) (data >>> 40) & 3;
+	}
+
+	/**
+	 * @return the best move of an entry, or -1 if it is not known
 	 */
-	public void put(BeliefState beliefState, float value) {
-		this.exploredSet.put(beliefState, value);
+	public static int move(long data) {
+		return ((int) (data >>> 42) & 7) - 1;
+	}
+
+	private static int age(long data) {
+		return (int) (data >>> 45) & 0xFF;
 	}
 }
 
 /**
- * Class used to store all possible results of performing an action at a given belief state
+ * Class used to store all possible results of performing an action at a given belief state.
+ * The results are indexed by their percept, encoded as a long (see BeliefState.percept), in an open-addressing hash table.
  */
 class Results implements Iterable<BeliefState>{
-	TreeMap<String, BeliefState> results;
+	private static final int INITIAL_CAPACITY = 8;
+
+	private long[] percepts;
+	private BeliefState[] results;
+	private int size;
+
+	/**
+	 * Belief state from which the results were computed, and column played by the player (-1 for an action of the opponent), used by filter to rebuild the exact results when the particle filter dropped the actual state
+	 */
+	BeliefState source;
+	int column = -1;
 
 	public Results(){
-		this.results = new TreeMap<String, BeliefState>();
+		this.percepts = new long[INITIAL_CAPACITY];
+		this.results = new BeliefState[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	private int find(long percept) {
+		int mask = this.percepts.length - 1;
+		int i = (int) ((percept * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		while(this.results[i] != null && this.percepts[i] != percept) {
+			i = (i + 1) & mask;
+		}
+		return i;
 	}
 
 	/**
 	 * Return the belief state of the result that correspond to a given percept
-	 * @param percept String that describe what is visible on the board for player 2
+	 * @param percept mask of the squares visible on the board for player 2
 	 * @return belief state corresponding percept, or null if such a percept is not possible
 	 */
-	public BeliefState get(String percept) {
-		return this.results.get(percept);
+	public BeliefState get(long percept) {
+		return this.results[this.find(percept)];
 	}
 
-	public void put(String s, BeliefState state) {
-		this.results.put(s, state);
+	public void put(long percept, BeliefState state) {
+		int i = this.find(percept);
+		if(this.results[i] == null) {
+			this.size++;
+		}
+		this.percepts[i] = percept;
+		this.results[i] = state;
+		if(4 * this.size > 3 * this.percepts.length) {
+			long[] oldPercepts = this.percepts;
+			BeliefState[] oldResults = this.results;
+			this.percepts = new long[2 * oldPercepts.length];
+			this.results = new BeliefState[2 * oldResults.length];
+			for(int j = 0; j < oldResults.length; j++) {
+				if(oldResults[j] != null) {
+					int k = this.find(oldPercepts[j]);
+					this.percepts[k] = oldPercepts[j];
+					this.results[k] = oldResults[j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * returns the number of different percepts
+	 * @return number of results
+	 */
+	public int size() {
+		return this.size;
 	}
 
 	public Iterator<BeliefState> iterator(){
-		return this.results.values().iterator();
+		final BeliefState[] results = this.results;
+		return new Iterator<BeliefState>() {
+			private int slot = this.next(0);
+
+			private int next(int slot) {
+				while(slot < results.length && results[slot] == null) {
+					slot++;
+				}
+				return slot;
+			}
+
+			public boolean hasNext() {
+				return this.slot < results.length;
+			}
+
+			public BeliefState next() {
+				if(this.slot >= results.length) {
+					throw new NoSuchElementException();
+				}
+				BeliefState result = results[this.slot];
+				this.slot = this.next(this.slot + 1);
+				return result;
+			}
+		};
+	}
+}
+
+/**
+ * Open-addressing hash table (with linear probing) used to store the states of a belief state. Each state is stored as its packed representation (see GameState.pack) with its probability in a parallel array.
+ */
+class StateTable {
+	private static final int INITIAL_CAPACITY = 16;
+
+	long[] keys;
+	float[] probas;
+	int size;
+
+	/**
+	 * construct an empty table
+	 */
+	public StateTable() {
+		this.keys = new long[INITIAL_CAPACITY];
+		this.probas = new float[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	public StateTable copy() {
+		StateTable copy = new StateTable();
+		copy.keys = this.keys.clone();
+		copy.probas = this.probas.clone();
+		copy.size = this.size;
+		return copy;
+	}
+
+	private static int slot(long key, int mask) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & mask;
+	}
+
+	/**
+	 * Search the slot of a given key
+	 * @param key packed state
+	 * @return the index of the slot containing the key, or of the empty slot where it would be inserted
+	 */
+	private int find(long key) {
+		int mask = this.keys.length - 1;
+		int i = StateTable.slot(key, mask);
+		while(this.keys[i] != 0 && this.keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	public boolean contains(long key) {
+		return this.keys[this.find(key)] == key;
+	}
+
+	/**
+	 * Returns the probability associated to a key
+	 * @param key packed state
+	 * @return the probability of the state, or 0 if it is not in the table
+	 */
+	public float proba(long key) {
+		int i = this.find(key);
+		return this.keys[i] == key? this.probas[i]: 0;
+	}
+
+	/**
+	 * Add a state to the table. If the state is already present, its probability is increased by the given probability.
+	 * @param key packed state
+	 * @param proba probability of the state
+	 */
+	public void add(long key, float proba) {
+		int i = this.find(key);
+		if(this.keys[i] == key) {
+			this.probas[i] += proba;
+			return;
+		}
+		this.keys[i] = key;
+		this.probas[i] = proba;
+		this.size++;
+		if(4 * this.size > 3 * this.keys.length) {
+			this.resize(2 * this.keys.length);
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = this.keys;
+		float[] oldProbas = this.probas;
+		this.keys = new long[capacity];
+		this.probas = new float[capacity];
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != 0) {
+				int j = this.find(oldKeys[i]);
+				this.keys[j] = oldKeys[i];
+				this.probas[j] = oldProbas[i];
+			}
+		}
+	}
+
+	/**
+	 * Remove a state from the table. The following entries of the probing sequence are shifted back, so that no tombstone is needed.
+	 * @param key packed state
+	 */
+	public void remove(long key) {
+		int i = this.find(key);
+		if(this.keys[i] != key) {
+			return;
+		}
+		int mask = this.keys.length - 1;
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			if(this.keys[j] == 0) {
+				break;
+			}
+			int k = StateTable.slot(this.keys[j], mask);
+			if(i <= j? (i < k && k <= j): (i < k || k <= j)) {
+				continue;
+			}
+			this.keys[i] = this.keys[j];
+			this.probas[i] = this.probas[j];
+			i = j;
+		}
+		this.keys[i] = 0;
+		this.probas[i] = 0;
+		this.size--;
+	}
+
+	/**
+	 * Returns the index of the first occupied slot starting from a given index
+	 * @param slot index from which the search starts
+	 * @return the index of the next occupied slot, or -1 if there is none
+	 */
+	public int next(int slot) {
+		while(slot < this.keys.length) {
+			if(this.keys[slot] != 0) {
+				return slot;
+			}
+			slot++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the keys of the table in increasing order
+	 * @return sorted array of the keys
+	 */
+	public long[] sortedKeys() {
+		long[] sorted = new long[this.size];
+		int n = 0;
+		for(int i = this.next(0); i >= 0; i = this.next(i + 1)) {
+			sorted[n++] = this.keys[i];
+		}
+		Arrays.sort(sorted);
+		return sorted;
 	}
 }
 
@@ -78,14 +515,96 @@ class Results implements Iterable<BeliefState>{
  * Class used to represent a belief state i.e., a set of possible states the agent may be in
  */
 class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
+	private static final long ALL_VISIBLE = (1L << 42) - 1;
+
 	private byte[] isVisible;
 
-	private TreeSet<GameState> beliefState;
+	private StateTable beliefState;
 
 	private int played;
 
+	/**
+	 * Once a belief state is frozen (see freeze), it can no longer be modified and its fingerprint, probability sum and hash code are cached
+	 */
+	private boolean frozen;
+	private long fingerprintHigh;
+	private long fingerprintLow;
+	private float probaSum;
+
+	private static boolean parallelPredict = false;
+	private static int parallelThreshold = 256;
+
+	/**
+	 * Maximal number of states of the belief states computed by predict and filter when the particle filter mode is enabled (0 when it is disabled)
+	 */
+	private static int particleLimit = 0;
+	private static Random particleRandom = new Random(0);
+
+	/**
+	 * Maximal number of belief states kept by a Lineage, i.e. of actions replayed by Lineage.rebuild
+	 */
+	private static final int MAX_REPLAY = 16;
+
+	/**
+	 * How to rebuild the belief state from the ones kept before the last resamplings of the particle filter, when it dropped the actual state from this one (null when the particle filter mode is disabled)
+	 */
+	private Lineage lineage;
+
+	/**
+	 * Belief state from which the states of low probability were removed to give this one (see AI.agregation), or null if no state was removed
+	 */
+	private BeliefState unpruned;
+
+	/**
+	 * Belief states kept by the particle filter: a copy of a belief state taken before its resampling, linked to the one it was obtained from after an action and a percept.
+	 * The chain holds at most MAX_REPLAY belief states, so that its memory is bounded by the number of particles, and not by the length of the game.
+	 */
+	private static class Lineage {
+		final BeliefState exact;
+		final Lineage previous;
+		final int column;
+		final long percept;
+
+		Lineage(BeliefState exact, Lineage previous, int column, long percept) {
+			this.exact = exact;
+			this.previous = previous;
+			this.column = column;
+			this.percept = percept;
+		}
+
+		/**
+		 * Keep the first belief states of a chain
+		 * @param lineage chain of belief states
+		 * @param n number of belief states to keep
+		 * @return chain of at most n belief states
+		 */
+		static Lineage keep(Lineage lineage, int n) {
+			if(lineage == null || n <= 0) {
+				return null;
+			}
+			return new Lineage(lineage.exact, keep(lineage.previous, n - 1), lineage.column, lineage.percept);
+		}
+
+		/**
+		 * Replay the actions and percepts from the oldest kept belief state. As the kept copies only contain the states drawn at the previous resamplings, the replay falls back on the copy of a more recent belief state when a percept matches none of the replayed states.
+		 * @return the belief state
+		 */
+		BeliefState rebuild() {
+			if(this.previous != null) {
+				BeliefState previous = this.previous.rebuild();
+				Results results = this.column < 0 ? previous.predict() : previous.putPiecePlayer(this.column);
+				BeliefState beliefState = results.get(this.percept);
+				if(beliefState != null) {
+					beliefState.normalize();
+					return beliefState;
+				}
+			}
+			return this.exact;
+		}
+	}
+
 	public BeliefState() {
-		this.beliefState = new TreeSet<GameState>();
+		this.beliefState = new StateTable();
 		this.isVisible = new byte[6];
 		for(int i = 0; i < 6; i++) {
 			this.isVisible[i] = Byte.MIN_VALUE;
@@ -101,16 +620,31 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 		this.played = played;
 	}
 
+	/**
+	 * Construct an empty belief state with a given visibility mask
+	 * @param visible mask of the visible squares, the square (row, column) corresponding to the bit row * 7 + column
+	 * @param played number of moves played
+	 */
+	public BeliefState(long visible, int played) {
+		this();
+		for(int i = 0; i < 6; i++) {
+			this.isVisible[i] = (byte) (((visible >>> (8 * i)) & 0xFF) - 128);
+		}
+		this.played = played;
+	}
+
 	public void setStates(BeliefState beliefState) {
+		this.checkNotFrozen();
 		this.beliefState = beliefState.beliefState;
 		for(int i = 0; i < 6; i++) {
 			this.isVisible[i] = beliefState.isVisible[i];
 		}
 		this.played = beliefState.played;
+		this.lineage = beliefState.lineage;
 	}
 
 	public boolean contains(GameState state) {
-		return this.beliefState.contains(state);
+		return this.beliefState.contains(state.pack());
 	}
 
 	/**
@@ -118,128 +652,266 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	 * @return number of state
 	 */
 	public int size() {
-		return this.beliefState.size();
+		return this.beliefState.size;
+	}
+
+	/**
+	 * returns the number of moves played since the beginning of the game
+	 * @return number of moves
+	 */
+	public int played() {
+		return this.played;
 	}
 
+	/**
+	 * Add a state to the belief state. If the state is already present, the probabilities are added. Only the content of the state is stored, not the object itself.
+	 * @param state the state to be added
+	 */
 	public void add(GameState state) {
-		if(!this.beliefState.contains(state)) {
-			this.beliefState.add(state);
+		this.checkNotFrozen();
+		this.beliefState.add(state.pack(), state.proba());
+	}
+	public void removeGameState(GameState state) {
+		this.checkNotFrozen();
+		this.beliefState.remove(state.pack());
+	}
+
+	private void checkNotFrozen() {
+		if(this.frozen) {
+			throw new IllegalStateException("A frozen belief state cannot be modified");
 		}
-		else {
-			GameState copy = this.beliefState.floor(state);
-			copy.addProba(state.proba());
+	}
+
+	/**
+	 * Returns a frozen copy of the belief state. A frozen belief state cannot be modified, and its 128-bit fingerprint, probability sum and hash code are computed once.
+	 * Two belief states with the same fingerprint are considered equal: they have the same number of moves played, the same visible squares, the same states, and the same probabilities up to a constant factor (with a precision of 1e-3).
+	 * @return this belief state if it is already frozen, and a frozen copy otherwise
+	 */
+	public BeliefState freeze() {
+		if(this.frozen) {
+			return this;
 		}
+		BeliefState bs = this.copy();
+		bs.probaSum = bs.probaSum();
+		bs.fingerprintHigh = bs.fingerprint(false, true);
+		bs.fingerprintLow = bs.fingerprint(false, false);
+		bs.frozen = true;
+		return bs;
 	}
-	public void removeGameState(GameState state) {
-		this.beliefState.remove(state);
+
+	public boolean isFrozen() {
+		return this.frozen;
+	}
+
+	/**
+	 * @return the belief state from which the states of low probability were removed to give this one, or this belief state if no state was removed
+	 */
+	public BeliefState unpruned() {
+		return this.unpruned != null? this.unpruned: this;
+	}
+
+	public void setUnpruned(BeliefState unpruned) {
+		this.unpruned = unpruned;
+	}
+
+	/**
+	 * Compute one half of the fingerprint of the belief state. The contribution of each state is summed, so that the fingerprint does not depend on the order of the states.
+	 * @param mirrored if true, compute the fingerprint of the mirror of the belief state (see mirror) without building it
+	 * @param high true for the 64 high bits of the fingerprint, false for the 64 low bits
+	 * @return half of the fingerprint
+	 */
+	private long fingerprint(boolean mirrored, boolean high) {
+		long seed = high? 0x9E3779B97F4A7C15L: 0xC2B2AE3D27D4EB4FL;
+		long visible = mirrored? BeliefState.mirrorVisible(this.visibleMask()): this.visibleMask();
+		long fingerprint = BeliefState.mix(seed ^ BeliefState.mix(visible + seed) ^ this.played);
+		float sum = this.probaSum();
+		StateTable table = this.beliefState;
+		for(int i = table.next(0); i >= 0; i = table.next(i + 1)) {
+			long key = mirrored? GameState.mirrorPacked(table.keys[i]): table.keys[i];
+			long proba = Math.round(table.probas[i] / sum * 1000);
+			fingerprint += BeliefState.mix(BeliefState.mix(key ^ seed) + proba);
+		}
+		return fingerprint;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long mirrorVisible(long visible) {
+		long mirror = 0;
+		for(int row = 0; row < 6; row++) {
+			for(int column = 0; column < 7; column++) {
+				if((visible & (1L << (row * 7 + column))) != 0) {
+					mirror |= 1L << (row * 7 + 6 - column);
+				}
+			}
+		}
+		return mirror;
+	}
+
+	/**
+	 * Two belief states are equal if they have the same fingerprint. The fingerprint of a frozen belief state is cached, the one of another belief state is computed
+	 * without copying it: such a belief state must not be modified while it is a key of a map.
+	 */
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(!(o instanceof BeliefState))
+			return false;
+		BeliefState other = (BeliefState) o;
+		return this.fingerprintHigh() == other.fingerprintHigh() && this.fingerprintLow() == other.fingerprintLow();
+	}
+
+	public int hashCode() {
+		long high = this.fingerprintHigh();
+		return (int) (high ^ (high >>> 32));
+	}
+
+	private long fingerprintHigh() {
+		return this.frozen? this.fingerprintHigh: this.fingerprint(false, true);
+	}
+
+	private long fingerprintLow() {
+		return this.frozen? this.fingerprintLow: this.fingerprint(false, false);
 	}
 
 	/**
 	 * Compute the possible results from a given believe state, after the opponent perform an action. This function souhd be used only when this is the turn of the opponent.
+	 * When the parallel mode is enabled (see setParallelPredict) and the belief state contains at least parallelThreshold states, the states are split across the common ForkJoin pool.
+	 * The results are then merged in the order of the sequential computation, so that both modes give exactly the same results.
 	 * @return an objet of class result containing all possible result of an action performed by the opponent if this is the turn of the opponent, and null otherwise.
 	 */
 	public Results predict(){
 		if(this.turn()) {
-			Results tmstates = new Results();
-			for(GameState state: this.beliefState) {
-				RandomSelector rs = new RandomSelector();
-				ArrayList<Integer> listColumn = new ArrayList<Integer>();
-				ArrayList<Integer> listGameOver = new ArrayList<Integer>();
-				int minGameOver = Integer.MAX_VALUE;
-				for(int column = 0; column < 7; column++) {
-					if(!state.isFull(column)) {
-						GameState copy = state.copy();
-						copy.putPiece(column);
-						if(copy.isGameOver()) {
-							listColumn.clear();
-							listColumn.add(column);
-							rs = new RandomSelector();
-							rs.add(1);
-							break;
-						}
-						int nbrGameOver = 0;
-						for(int i = 0; i < 7; i++) {
-							if(!copy.isFull(i)) {
-								GameState copycopy = copy.copy();
-								copycopy.putPiece(i);
-								if(copycopy.isGameOver()) {
-									nbrGameOver++;
-								}
-							}
-						}
-						if(nbrGameOver == 0) {
-							rs.add(ProbabilisticOpponentAI.heuristicValue(state, column));
-							listColumn.add(column);
-						}
-						else {
-							if(minGameOver > nbrGameOver) {
-								minGameOver = nbrGameOver;
-								listGameOver.clear();
-								listGameOver.add(column);
-							}
-							else {
-								if(minGameOver == nbrGameOver) {
-									listGameOver.add(column);
-								}
-							}
-						}
-					}
+			Outcomes outcomes;
+			if(parallelPredict && this.size() >= parallelThreshold) {
+				int[] slots = new int[this.size()];
+				int n = 0;
+				for(int i = this.beliefState.next(0); i >= 0; i = this.beliefState.next(i + 1)) {
+					slots[n++] = i;
 				}
-				int index = 0;
-				if(listColumn.isEmpty()) {
-					for(int column: listGameOver) {
-						listColumn.add(column);
-						rs.add(1);
-					}
+				outcomes = ForkJoinPool.commonPool().invoke(new PredictTask(this, slots, 0, n));
+			}
+			else {
+				outcomes = new Outcomes();
+				long visible = this.visibleMask();
+				for(GameState state: this) {
+					this.predict(state, visible, outcomes);
 				}
-				for(int column: listColumn) {
-					GameState copy = state.copy();
-					if(!copy.isFull(column)) {
-						byte[] tab = new byte[6];
-						for(int i = 0; i < 6; i++) {
-							tab[i] = this.isVisible[i];
-						}
-						copy.putPiece(column);
-						if(copy.isGameOver()) {
-							for(int i = 0; i < 6; i++) {
-								for(int j = 0; j < 7; j++) {
-									BeliefState.setVisible(i, j, true, tab);
-								}
-							}
-						}
-						else {
-							boolean isVisible = copy.isGameOver() || copy.isFull(column);
-							BeliefState.setVisible(5, column, isVisible, tab);
-							for(int row = 4; row > -1; row--) {
-								isVisible = isVisible || copy.content(row, column) == 2;
-								BeliefState.setVisible(row, column, isVisible, tab);
-							}
-						}
-						String s = "";
-						char c = 0;
-						for(int i = 0; i < 6; i++) {
-							int val = tab[i] + 128;
-							s += ((char)(val % 128));
-							c += (val / 128) << i;
-						}
-						s += c;
-						copy.multProba(rs.probability(index++));
-						BeliefState bs = tmstates.get(s);
-						if(bs!= null) {
-							bs.add(copy);
-						}
-						else {
-							bs = new BeliefState(tab, this.played + 1);
-							bs.add(copy);
-							tmstates.put(s, bs);
-						}
-					}
+			}
+			Results tmstates = new Results();
+			for(int i = 0; i < outcomes.size; i++) {
+				BeliefState bs = tmstates.get(outcomes.percepts[i]);
+				if(bs!= null) {
+					bs.add(outcomes.states[i]);
+				}
+				else {
+					bs = new BeliefState(outcomes.percepts[i], this.played + 1);
+					bs.add(outcomes.states[i]);
+					tmstates.put(outcomes.percepts[i], bs);
 				}
 			}
-			return tmstates;
+			tmstates.source = this;
+			return tmstates;
+		}
+		else {
+			return null;
+		}
+	}
+
+	/**
+	 * Apply the model of the opponent (see ProbabilisticOpponentAI.policy) to one state of the belief state, and store each resulting state with its percept
+	 * @param state the state (which is modified during the computation, but restored at the end)
+	 * @param visible mask of the squares visible in the belief state
+	 * @param outcomes list where the resulting states are added
+	 */
+	private void predict(GameState state, long visible, Outcomes outcomes) {
+		float[] policy = ProbabilisticOpponentAI.policy(state);
+		for(int column = 0; column < 7; column++) {
+			if(policy[column] > 0) {
+				GameState copy = state.copy();
+				copy.putPiece(column);
+				long percept = BeliefState.percept(visible, copy, column);
+				copy.multProba(policy[column]);
+				outcomes.add(percept, copy);
+			}
+		}
+	}
+
+	/**
+	 * Enable or disable the parallel computation of predict
+	 * @param parallel true to split large belief states across the common ForkJoin pool
+	 * @param threshold minimal number of states of a belief state for the computation to be parallel
+	 */
+	public static void setParallelPredict(boolean parallel, int threshold) {
+		parallelPredict = parallel;
+		parallelThreshold = threshold;
+	}
+
+	/**
+	 * Ordered list of the states produced by predict, with their percept
+	 */
+	private static class Outcomes {
+		long[] percepts = new long[16];
+		GameState[] states = new GameState[16];
+		int size = 0;
+
+		void add(long percept, GameState state) {
+			if(this.size == this.states.length) {
+				this.percepts = Arrays.copyOf(this.percepts, 2 * this.size);
+				this.states = Arrays.copyOf(this.states, 2 * this.size);
+			}
+			this.percepts[this.size] = percept;
+			this.states[this.size++] = state;
 		}
-		else {
-			return null;
+
+		void addAll(Outcomes outcomes) {
+			for(int i = 0; i < outcomes.size; i++) {
+				this.add(outcomes.percepts[i], outcomes.states[i]);
+			}
+		}
+	}
+
+	/**
+	 * Task applying the model of the opponent to a range of slots of the table of a belief state. The outcomes of the two halves are concatenated in order.
+	 */
+	private static class PredictTask extends RecursiveTask<Outcomes> {
+		private static final long serialVersionUID = 1L;
+		private static final int GRANULARITY = 64;
+
+		private final BeliefState belief;
+		private final int[] slots;
+		private final int from, to;
+
+		PredictTask(BeliefState belief, int[] slots, int from, int to) {
+			this.belief = belief;
+			this.slots = slots;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected Outcomes compute() {
+			if(this.to - this.from <= GRANULARITY) {
+				Outcomes outcomes = new Outcomes();
+				long visible = this.belief.visibleMask();
+				StateTable table = this.belief.beliefState;
+				for(int i = this.from; i < this.to; i++) {
+					GameState state = GameState.unpack(table.keys[this.slots[i]]);
+					state.setProba(table.probas[this.slots[i]]);
+					this.belief.predict(state, visible, outcomes);
+				}
+				return outcomes;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			PredictTask left = new PredictTask(this.belief, this.slots, this.from, middle);
+			left.fork();
+			Outcomes right = new PredictTask(this.belief, this.slots, middle, this.to).compute();
+			Outcomes outcomes = left.join();
+			outcomes.addAll(right);
+			return outcomes;
 		}
 	}
 
@@ -251,46 +923,23 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	public Results putPiecePlayer(int column){
 		if(!this.turn()) {
 			Results tmstates = new Results();
-			for(GameState state: this.beliefState) {
+			long visible = this.visibleMask();
+			for(GameState state: this) {
 				GameState copy = state.copy();
-				byte[] tab = new byte[6];
-				for(int i = 0; i < 6; i++) {
-					tab[i] = this.isVisible[i];
-				}
 				copy.putPiece(column);
-				if(copy.isGameOver()) {
-					for(int i = 0; i < 6; i++) {
-						for(int j = 0; j < 7; j++) {
-							BeliefState.setVisible(i, j, true, tab);
-						}
-					}
-				}
-				else {
-					boolean isVisible = copy.isFull(column);
-					BeliefState.setVisible(5, column, isVisible, tab);
-					for(int row = 4; row > -1; row--) {
-						isVisible = isVisible || copy.content(row, column) == 2;
-						BeliefState.setVisible(row, column, isVisible, tab);
-					}
-				}
-				String s = "";
-				char c = 0;
-				for(int i = 0; i < 6; i++) {
-					int val = tab[i] + 128;
-					s += ((char)(val % 128));
-					c += (val / 128) << i;
-				}
-				s += c;
-				BeliefState bs = tmstates.get(s);
+				long percept = BeliefState.percept(visible, copy, column);
+				BeliefState bs = tmstates.get(percept);
 				if(bs!= null) {
 					bs.add(copy);
 				}
 				else {
-					bs = new BeliefState(tab, this.played + 1);
+					bs = new BeliefState(percept, this.played + 1);
 					bs.add(copy);
-					tmstates.put(s, bs);
+					tmstates.put(percept, bs);
 				}
 			}
+			tmstates.source = this;
+			tmstates.column = column;
 			return tmstates;
 		}
 		else {
@@ -300,47 +949,124 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	}
 
 	public static BeliefState filter(Results beliefStates, GameState state) {
-		byte tab[] = new byte[6];
-		for(int i = 0; i < 6; i++) {
-			tab[i] = Byte.MIN_VALUE;
-		}
+		long percept = 0;
 		for(int column = 0; column < 7; column++) {
-			boolean isVisible = state.isGameOver() || state.isFull(column);
-			BeliefState.setVisible(5, column, isVisible, tab);
-			for(int row = 4; row > -1; row--) {
-				isVisible = isVisible || (state.content(row, column) == 2);
-				BeliefState.setVisible(row, column, isVisible, tab);
-			}
+			percept = BeliefState.percept(percept, state, column);
 		}
-		String s = "";
-		char c = 0;
-		for(int i = 0; i < 6; i++) {
-			int val = tab[i] + 128;
-			s += ((char)(val % 128));
-			c += (val / 128) << i;
+		BeliefState beliefState = beliefStates.get(percept);
+		BeliefState source = beliefStates.source;
+		if(beliefState == null && source != null && source.lineage != null) {
+			// the particle filter dropped the actual state: the results are rebuilt from the belief states kept before the last resamplings
+			BeliefState exact = source.lineage.rebuild();
+			Results results = beliefStates.column < 0 ? exact.predict() : exact.putPiecePlayer(beliefStates.column);
+			beliefState = results.get(percept);
 		}
-		s += c;
-		BeliefState beliefState = beliefStates.get(s);
-		RandomSelector rs = new RandomSelector();
-		for(GameState st: beliefState.beliefState) {
-			rs.add(st.proba());
+		if(beliefState == null) {
+			throw new IllegalStateException("The percept is not consistent with the belief state");
 		}
-		int i = 0;
-		for(GameState st: beliefState.beliefState) {
-			st.setProba(rs.probability(i++));
+		beliefState.normalize();
+		if(particleLimit > 0) {
+			Lineage previous = source == null ? null : Lineage.keep(source.lineage, MAX_REPLAY - 1);
+			beliefState.lineage = new Lineage(beliefState.copy(), previous, beliefStates.column, percept);
+			if(beliefState.size() > particleLimit) {
+				beliefState.resample(particleLimit, particleRandom);
+			}
 		}
 		return beliefState;
 	}
 
+	/**
+	 * Divide the probabilities of the states by their sum, so that they sum to 1. When the sum is 0 (the opponent model gave no probability to the observed move), all the states get the same probability.
+	 */
+	public void normalize() {
+		this.checkNotFrozen();
+		StateTable table = this.beliefState;
+		float sum = 0;
+		for(int i = table.next(0); i >= 0; i = table.next(i + 1)) {
+			sum += table.probas[i];
+		}
+		for(int i = table.next(0); i >= 0; i = table.next(i + 1)) {
+			table.probas[i] = sum > 0 ? table.probas[i] / sum : 1f / table.size;
+		}
+	}
+
+	/**
+	 * Enable or disable the particle filter mode. In this mode, the belief states computed by filter with more than a given number N of states are approximated by N draws of systematic resampling according to their probabilities.
+	 * N bounds the number of distinct states of a belief state (a state drawn several times is kept once, with the sum of the weights of its draws), hence the memory and the time spent on each belief state.
+	 * When the actual state of the game was dropped and the percept matches none of the remaining states, filter rebuilds the results from the copies of the last MAX_REPLAY belief states taken before their resampling,
+	 * each of them holding at most N states times the number of successors of a state. This fails with an IllegalStateException if the actual state was already dropped before the oldest of them.
+	 * @param limit number N of draws of the resampling, or 0 to disable the particle filter mode
+	 * @param seed seed of the random generator used for the resampling, so that the results are reproducible
+	 */
+	public static void setParticleFilter(int limit, long seed) {
+		particleLimit = limit;
+		particleRandom = new Random(seed);
+	}
+
+	/**
+	 * Replace the states of the belief state by exactly n draws of systematic resampling, so that at most n distinct states are kept. A state drawn k times gets k / n of the total probability, so that the sum of the probabilities is kept.
+	 * Nothing is done if the belief state contains at most n states.
+	 * @param n number of draws
+	 * @param random random generator used to draw the offset of the resampling
+	 */
+	public void resample(int n, Random random) {
+		this.checkNotFrozen();
+		StateTable table = this.beliefState;
+		if(table.size <= n) {
+			return;
+		}
+		float sum = this.probaSum();
+		float weight = sum / n;
+		StateTable resampled = new StateTable();
+		double step = sum / (double) n;
+		double target = random.nextDouble() * step;
+		double cumul = 0;
+		int drawn = 0;
+		long last = 0;
+		for(int i = table.next(0); i >= 0 && drawn < n; i = table.next(i + 1)) {
+			cumul += table.probas[i];
+			last = table.keys[i];
+			while(target < cumul && drawn < n) {
+				resampled.add(last, weight);
+				target += step;
+				drawn++;
+			}
+		}
+		// the rounding errors of cumul may leave the last targets above the sum: they are drawn on the last state
+		for(; drawn < n; drawn++) {
+			resampled.add(last, weight);
+		}
+		this.beliefState = resampled;
+	}
+
+	/**
+	 * Compute the effective sample size of the belief state, i.e. 1 / sum(w * w) where w are the normalized probabilities of the states.
+	 * It is equal to the number of states when all the states have the same probability, and close to 1 when one state concentrates the probability.
+	 * @return the effective sample size
+	 */
+	public double effectiveSampleSize() {
+		StateTable table = this.beliefState;
+		double sum = 0, squares = 0;
+		for(int i = table.next(0); i >= 0; i = table.next(i + 1)) {
+			sum += table.probas[i];
+		}
+		if(sum <= 0) {
+			return 0;
+		}
+		for(int i = table.next(0); i >= 0; i = table.next(i + 1)) {
+			double w = table.probas[i] / sum;
+			squares += w * w;
+		}
+		return 1 / squares;
+	}
+
 	/**
 	 * Make a copy of the belief state containing the same states
 	 * @return copy of the belief state
 	 */
 	public BeliefState copy() {
 		BeliefState bs = new BeliefState();
-		for(GameState state: this.beliefState) {
-			bs.add(state.copy());
-		}
+		bs.beliefState = this.beliefState.copy();
 		for(int i = 0; i < 6; i++) {
 			bs.isVisible[i] = this.isVisible[i];
 		}
@@ -348,8 +1074,93 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 		return bs;
 	}
 
+	/**
+	 * Make a copy of the belief state mirrored left to right: every state is mirrored, as well as the visible squares
+	 * @return mirrored copy of the belief state
+	 */
+	public BeliefState mirror() {
+		BeliefState bs = new BeliefState();
+		for(GameState state: this) {
+			bs.add(state.mirror());
+		}
+		for(int row = 0; row < 6; row++) {
+			for(int column = 0; column < 7; column++) {
+				bs.setVisible(row, 6 - column, this.isVisible(row, column));
+			}
+		}
+		bs.played = this.played;
+		return bs;
+	}
+
+	/**
+	 * Returns the canonical form of the belief state with respect to the left-right symmetry of the board, i.e. the one of the belief state and its mirror with the smallest fingerprint.
+	 * The mirror is only built when it is the canonical form.
+	 * @return a frozen belief state, equal to this belief state if it is its own canonical form, and to its mirror otherwise
+	 */
+	public BeliefState canonical() {
+		BeliefState bs = this.freeze();
+		long high = bs.fingerprint(true, true);
+		if(high < bs.fingerprintHigh || (high == bs.fingerprintHigh && bs.fingerprint(true, false) < bs.fingerprintLow)) {
+			return bs.mirror().freeze();
+		}
+		return bs;
+	}
+
+	/**
+	 * Compute the fingerprint of the canonical form of the belief state (see canonical) without building it, nor freezing the belief state.
+	 * @param key array receiving the 64 high bits (index 0) and the 64 low bits (index 1) of the fingerprint
+	 * @return true if the canonical form is the mirror of the belief state
+	 */
+	public boolean canonicalFingerprint(long[] key) {
+		long high = this.fingerprintHigh();
+		long low = this.fingerprintLow();
+		long mirrorHigh = this.fingerprint(true, true);
+		if(mirrorHigh < high || (mirrorHigh == high && this.fingerprint(true, false) < low)) {
+			key[0] = mirrorHigh;
+			key[1] = this.fingerprint(true, false);
+			return true;
+		}
+		key[0] = high;
+		key[1] = low;
+		return false;
+	}
+
+	/**
+	 * Iterate over the states of the belief state. The states are decoded on the fly, so modifying them does not modify the belief state.
+	 */
 	public Iterator<GameState> iterator(){
-		return this.beliefState.iterator();
+		final StateTable table = this.beliefState;
+		return new Iterator<GameState>() {
+			private int slot = table.next(0);
+
+			public boolean hasNext() {
+				return this.slot >= 0;
+			}
+
+			public GameState next() {
+				if(this.slot < 0) {
+					throw new NoSuchElementException();
+				}
+				GameState state = GameState.unpack(table.keys[this.slot]);
+				state.setProba(table.probas[this.slot]);
+				this.slot = table.next(this.slot + 1);
+				return state;
+			}
+		};
+	}
+
+	/**
+	 * Returns one of the states of the belief state (the one stored in the first slot of the table)
+	 * @return a state of the belief state
+	 */
+	private GameState first() {
+		int slot = this.beliefState.next(0);
+		if(slot < 0) {
+			throw new NoSuchElementException();
+		}
+		GameState state = GameState.unpack(this.beliefState.keys[slot]);
+		state.setProba(this.beliefState.probas[slot]);
+		return state;
 	}
 
 	/**
@@ -359,7 +1170,7 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	public ArrayList<Integer> getMoves(){
 		if(!this.isGameOver()) {
 			ArrayList<Integer> moves = new ArrayList<Integer>();
-			GameState state = this.beliefState.first();
+			GameState state = this.first();
 			for(int i = 0; i < 7; i++) {
 				if(!state.isFull(i))
 					moves.add(i);
@@ -376,7 +1187,7 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	 * @return true if the next to play is the opponent, and false otherwise
 	 */
 	public boolean turn() {
-		return this.beliefState.first().turn();
+		return this.first().turn();
 	}
 
 	public boolean isVisible(int row, int column) {
@@ -387,6 +1198,7 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	}
 
 	public void setVisible(int row, int column, boolean val) {
+		this.checkNotFrozen();
 		int pos = row * 7 + column;
 		int index = pos / 8;
 		pos = pos % 8;
@@ -394,6 +1206,45 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 		this.isVisible[index] = (byte) (this.isVisible[index] + delta);
 	}
 
+	/**
+	 * Returns the mask of the visible squares, the square (row, column) corresponding to the bit row * 7 + column
+	 * @return the visibility mask as a long
+	 */
+	public long visibleMask() {
+		long visible = 0;
+		for(int i = 0; i < 6; i++) {
+			visible |= ((long) (this.isVisible[i] + 128)) << (8 * i);
+		}
+		return visible;
+	}
+
+	/**
+	 * Compute the percept of player 2 after a piece has been played in a given column. If the game is over, the whole board is revealed.
+	 * Otherwise, the squares of the column are visible from the top of the column down to the first red piece, the top square being visible only if the column is full.
+	 * The mask of the visible squares is used as the key of the percept in Results.
+	 * @param visible mask of the squares visible before the move
+	 * @param state the state after the move
+	 * @param column the index of the column played
+	 * @return the mask of the visible squares after the move
+	 */
+	public static long percept(long visible, GameState state, int column) {
+		if(state.isGameOver()) {
+			return ALL_VISIBLE;
+		}
+		boolean isVisible = state.isFull(column);
+		visible = BeliefState.setVisible(5, column, isVisible, visible);
+		for(int row = 4; row > -1; row--) {
+			isVisible = isVisible || state.content(row, column) == 2;
+			visible = BeliefState.setVisible(row, column, isVisible, visible);
+		}
+		return visible;
+	}
+
+	private static long setVisible(int row, int column, boolean val, long visible) {
+		long bit = 1L << (row * 7 + column);
+		return val? visible | bit: visible & ~bit;
+	}
+
 	public static void setVisible(int row, int column, boolean val, byte[] tab) {
 		int pos = row * 7 + column;
 		int index = pos / 8;
@@ -408,7 +1259,7 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	 * @return true if the game is over, and false otherwise
 	 */
 	public boolean isGameOver() {
-		for(GameState state: this.beliefState) {
+		for(GameState state: this) {
 			if(!state.isGameOver()) {
 				return false;
 			}
@@ -421,28 +1272,31 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 	 * @return
 	 */
 	public boolean isFull() {
-		return this.beliefState.first().isFull();
+		return this.first().isFull();
 	}
 
 
 	public void restart() {
-		this.beliefState = new TreeSet<GameState>();
+		this.checkNotFrozen();
+		this.beliefState = new StateTable();
 		this.isVisible = new byte[6];
 		for(int i = 0; i < 6; i++) {
 			this.isVisible[i] = Byte.MIN_VALUE;
 		}
 		this.played = 0;
+		this.lineage = null;
+		this.unpruned = null;
 	}
 
 	public String toString() {
-		String s = "BeliefState: size = " + this.beliefState.size() + " played = " + this.played + "\n";
+		String s = "BeliefState: size = " + this.beliefState.size + " played = " + this.played + "\n";
 		for(int row = 5; row > -1; row--) {
 			for(int column = 0; column < 7; column++) {
 				s += this.isVisible(row, column)? "1": "0";
 			}
 			s += "\n";
 		}
-		for(GameState state:this.beliefState) {
+		for(GameState state: this) {
 			s += state.toString() + "\n";
 		}
 		return s;
@@ -455,67 +1309,305 @@ class BeliefState implements Comparable<BeliefState>, Iterable<GameState>{
 			if(this.isVisible[i] != bs.isVisible[i])
 				return this.isVisible[i] > bs.isVisible[i]? 1: -1;
 		}
-		if(this.beliefState.size() != bs.beliefState.size()) {
-			return this.beliefState.size() > bs.beliefState.size()? 1: -1;
+		if(this.beliefState.size != bs.beliefState.size) {
+			return this.beliefState.size > bs.beliefState.size? 1: -1;
 		}
-		Iterator<GameState> iter = bs.beliefState.iterator();
-		for(GameState next: this.beliefState) {
-			GameState otherNext = iter.next();
-			int comp = next.compareTo(otherNext);
-			if(comp != 0)
-				return comp;
+		long[] keys = this.beliefState.sortedKeys(), otherKeys = bs.beliefState.sortedKeys();
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != otherKeys[i])
+				return keys[i] > otherKeys[i]? 1: -1;
 		}
-		iter = bs.beliefState.iterator();
 		float sum1 = this.probaSum(), sum2 = bs.probaSum();
-		for(GameState next: this.beliefState) {
-			GameState otherNext = iter.next();
-			if(Math.abs(next.proba() * sum1 - otherNext.proba() * sum2) > 0.001) {
-				return next.proba() > otherNext.proba()? 1: -1;
+		for(int i = 0; i < keys.length; i++) {
+			float proba = this.beliefState.proba(keys[i]), otherProba = bs.beliefState.proba(keys[i]);
+			if(Math.abs(proba * sum1 - otherProba * sum2) > 0.001) {
+				return proba > otherProba? 1: -1;
 			}
 		}
 		return 0;
 	}
 
 	public float probaSum() {
+		if(this.frozen) {
+			return this.probaSum;
+		}
 		float sum = 0;
-		for(GameState state: this.beliefState) {
-			sum += state.proba();
+		for(int i = this.beliefState.next(0); i >= 0; i = this.beliefState.next(i + 1)) {
+			sum += this.beliefState.probas[i];
 		}
 		return sum;
 	}
 }
 
+/**
+ * Set of the heuristic values of the states (see AI.heuristic_game), as an open-addressing table from the packed representation of the canonical form
+ * of a state (see GameState.pack) to its value. A state is stored in one of the PROBES slots which follow its home slot. When they are all used,
+ * the first one which was not read since the last eviction in these slots is replaced (CLOCK policy, the reference bits being cleared on the way).
+ * The table is read and written without locks: each slot stores the key xor the bits of the value, so that a slot partly written by another thread does not match any key.
+ */
 class ExploredSet_2{
-	TreeMap<GameState, Double> exploredSet_2;
+	private static final int DEFAULT_CAPACITY = 1 << 18;
+	private static final int PROBES = 8;
+
+	private final long[] keys;
+	private final double[] values;
+	private final boolean[] referenced;
+	private final int mask;
 
 	/**
-	 * construct an empty set
+	 * construct an empty set with the default capacity
 	 */
 	public ExploredSet_2() {
-		this.exploredSet_2 = new TreeMap<GameState, Double>();
+		this(DEFAULT_CAPACITY);
 	}
 
 	/**
-	 * Search if a given state belongs to the explored set and returns its values if that is the case
- * @param state the state for which the search takes place
- * @return the value of the state if it belongs to the set, and null otherwise
- */
-public Double get(GameState state) {
-	Entry<GameState, Double> entry = this.exploredSet_2.ceilingEntry(state);
-	if(entry == null || state.compareTo(entry.getKey()) != 0) {
-		return null;
+	 * construct an empty set
+	 * @param capacity maximal number of states in the set, rounded up to a power of 2
+	 */
+	public ExploredSet_2(int capacity) {
+		int entries = PROBES;
+		while(entries < capacity) {
+			entries <<= 1;
+		}
+		this.keys = new long[entries];
+		this.values = new double[entries];
+		this.referenced = new boolean[entries];
+		this.mask = entries - 1;
+	}
+
+	private static long key(GameState state) {
+		long packed = state.pack();
+		return Math.min(packed, GameState.mirrorPacked(packed));
+	}
+
+	private int home(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & this.mask;
+	}
+
+	/**
+	 * Search if a given state belongs to the explored set and returns its value if that is the case
+	 * @param state the state for which the search takes place
+	 * @return the value of the state if it belongs to the set, and NaN otherwise
+	 */
+	public double get(GameState state) {
+		long key = ExploredSet_2.key(state);
+		int home = this.home(key);
+		for(int i = 0; i < PROBES; i++) {
+			int slot = (home + i) & this.mask;
+			double value = this.values[slot];
+			if((this.keys[slot] ^ Double.doubleToRawLongBits(value)) == key) {
+				this.referenced[slot] = true;
+				return value;
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Put a state and its corresponding value into the set
+	 * @param g the state to be added
+	 * @param value the value of the state
+	 */
+	public void put(GameState g, double value) {
+		this.put(ExploredSet_2.key(g), value);
+	}
+
+	private void put(long key, double value) {
+		int home = this.home(key);
+		int victim = -1;
+		// The slot of the state, or the first free slot (the slots are never freed, so the state cannot be after a free slot)
+		for(int i = 0; i < PROBES && victim < 0; i++) {
+			int slot = (home + i) & this.mask;
+			long stored = this.keys[slot] ^ Double.doubleToRawLongBits(this.values[slot]);
+			if(stored == key || stored == 0) {
+				victim = slot;
+			}
+		}
+		// Otherwise, the first slot which was not read recently
+		for(int i = 0; i < PROBES && victim < 0; i++) {
+			int slot = (home + i) & this.mask;
+			if(this.referenced[slot]) {
+				this.referenced[slot] = false;
+			}
+			else {
+				victim = slot;
+			}
+		}
+		if(victim < 0) {
+			victim = home;
+		}
+		this.values[victim] = value;
+		this.keys[victim] = key ^ Double.doubleToRawLongBits(value);
+		this.referenced[victim] = false;
+	}
+
+	/**
+	 * Remove all the states of the set
+	 */
+	public void clear() {
+		Arrays.fill(this.keys, 0);
+		Arrays.fill(this.values, 0);
+		Arrays.fill(this.referenced, false);
+	}
+
+	/**
+	 * Write the entries of the set (see AI.saveCaches): 2 longs per entry, the key and the bits of the value
+	 * @param out the stream where the entries are written
+	 * @return the number of entries written
+	 */
+	public int write(DataOutputStream out) throws IOException {
+		int n = 0;
+		for(int slot = 0; slot <= this.mask; slot++) {
+			long bits = Double.doubleToRawLongBits(this.values[slot]);
+			long key = this.keys[slot] ^ bits;
+			if(key != 0) {
+				out.writeLong(key);
+				out.writeLong(bits);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Add entries written by write
+	 * @param in the buffer where the entries are read
+	 * @param n the number of entries
+	 */
+	public void read(LongBuffer in, int n) {
+		for(int i = 0; i < n; i++) {
+			long key = in.get();
+			this.put(key, Double.longBitsToDouble(in.get()));
+		}
+	}
+
+	/**
+	 * @return the number of states in the set (computed by scanning the table)
+	 */
+	public int size() {
+		int size = 0;
+		for(int slot = 0; slot <= this.mask; slot++) {
+			if((this.keys[slot] ^ Double.doubleToRawLongBits(this.values[slot])) != 0) {
+				size++;
+			}
+		}
+		return size;
 	}
-	return entry.getValue();
 }
 
 /**
- * Put a belief state and its corresponding value into the set
- * @param beliefState the belief state to be added
- * @param value the
+ * 128-bit fingerprint of a belief state (see BeliefState.canonicalFingerprint), used as the key of a map instead of a frozen copy of the belief state
  */
-public void put(GameState g, double value) {
-	this.exploredSet_2.put(g, value);
+class Fingerprint{
+	final long high;
+	final long low;
+
+	Fingerprint(long[] key) {
+		this.high = key[0];
+		this.low = key[1];
+	}
+
+	public boolean equals(Object o) {
+		if(!(o instanceof Fingerprint))
+			return false;
+		Fingerprint other = (Fingerprint) o;
+		return this.high == other.high && this.low == other.low;
+	}
+
+	public int hashCode() {
+		return (int) (this.high ^ (this.high >>> 32));
+	}
 }
+
+/**
+ * Part of the search tree kept from one call of AI.findNextMove to the next: the values of the moves of the OR nodes at depth 1, i.e. the belief states
+ * which follow a move of the player and a move of the opponent. One of them is the root of the next search, which can reuse its values.
+ */
+class SearchTree{
+	/**
+	 * Values of the moves of a belief state (as returned by AI.or_search), searched at a given depth
+	 */
+	static class Node{
+		final ArrayList<Double> values;
+		final int depth;
+
+		Node(ArrayList<Double> values, int depth) {
+			this.values = values;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * Values of the belief states, indexed by their canonical fingerprint, the values of a mirrored belief state being stored mirrored
+	 */
+	private ConcurrentHashMap<Fingerprint, Node> children;
+
+	/**
+	 * construct an empty tree
+	 */
+	public SearchTree() {
+		this.children = new ConcurrentHashMap<Fingerprint, Node>();
+	}
+
+	/**
+	 * Keep the values of the moves of a belief state which may be the root of the next search, to order its moves. The belief state is identified by the one it was pruned from (see BeliefState.unpruned),
+	 * which is the one given by filter, so the values are those of the pruned belief state. The values are only replaced by values searched at least as deep.
+	 * @param belief the belief state
+	 * @param values the values of the moves
+	 * @param depth the number of moves searched from the belief state
+	 */
+	public void record(BeliefState belief, ArrayList<Double> values, int depth) {
+		long[] key = new long[2];
+		if(belief.unpruned().canonicalFingerprint(key)) {
+			values = SearchTree.mirror(values);
+		}
+		Fingerprint k = new Fingerprint(key);
+		Node old = this.children.get(k);
+		if(old == null || old.depth <= depth) {
+			this.children.put(k, new Node(values, depth));
+		}
+	}
+
+	/**
+	 * Keep the best move of a belief state whose value was found in the explored set: the other moves get the value -infinity
+	 * @param belief the belief state
+	 * @param move the best move
+	 * @param value the value of the belief state
+	 * @param depth the number of moves searched from the belief state
+	 */
+	public void record(BeliefState belief, int move, double value, int depth) {
+		ArrayList<Double> values = new ArrayList<Double>();
+		for(int column = 0; column < 7; column++) {
+			values.add(column == move? value: Double.NEGATIVE_INFINITY);
+		}
+		this.record(belief, values, depth);
+	}
+
+	/**
+	 * Re-root the tree at the belief state given by filter: its values are returned, and the values of the other belief states are discarded
+	 * @param belief the new root
+	 * @return the values of the moves of the new root, or null if they were not kept
+	 */
+	public Node reroot(BeliefState belief) {
+		Node node = null;
+		if(!this.children.isEmpty()) {
+			long[] key = new long[2];
+			boolean mirrored = belief.canonicalFingerprint(key);
+			node = this.children.get(new Fingerprint(key));
+			if(node != null && mirrored) {
+				node = new Node(SearchTree.mirror(node.values), node.depth);
+			}
+		}
+		this.children.clear();
+		return node;
+	}
+
+	private static ArrayList<Double> mirror(ArrayList<Double> values) {
+		ArrayList<Double> mirror = new ArrayList<Double>(values);
+		Collections.reverse(mirror);
+		return mirror;
+	}
 }
 
 
@@ -526,8 +1618,8 @@ public class AI{
  * and manage the set of previously explored game states.
  *
  * exploredSet -> A collection of previously explored game states. This set allows the AI to avoid redundant calculations
- * by storing and reusing previously evaluated states during the search. The set grows as the AI explores more  belief states
- * at each search depth.
+ * by storing and reusing previously evaluated states during the search. It is a transposition table of fixed capacity: each value
+ * is stored with the depth of the search which produced it, and is only reused by searches which are not deeper.
  *
  * nbr_partie -> Tracks the number of games played. This variable helps to determine which depth to use for the AI's search.
  * Initially, we will use depth_max = 2, so the exploredSet will store belief states evaluated with a lookahead of 2 moves.
@@ -537,13 +1629,46 @@ public class AI{
  * the beliefstate up to two moves ahead. This choice offers a good balance between decision quality and computational performance.
  *
  * depth_max_bis -> A slightly deeper search with a maximum depth of 3. The algorithm is first run with depth=2,
- * which is the most precise. At this depth, the exploredSet contains belief states evaluated with depth=2.
- * This provides a sufficiently accurate search, so when we increase the depth to 3, the performance is not significantly
+ * which is the most precise. At this depth, the exploredSet contains belief states evaluated with depth=2, which are replaced
+ * by deeper values as they are found. This provides a sufficiently accurate search, so when we increase the depth to 3, the performance is not significantly
  * compromised, and we can still achieve a good level of precision. The increased depth allows the AI to explore
  * further, helping it anticipate more complex game scenarios while maintaining overall decision quality.
  *
  *
- * ExploredSet_2 is essentially the same class as ExploredSet but for GameState
+ * ExploredSet_2 is essentially the same class as ExploredSet but for GameState. It is a lock-free table of bounded capacity from the packed states
+ * to their values, which can be shared by the parallel searches, and the states which are not read recently are evicted.
+ *
+ * cachePerGame -> When true, the explored sets are cleared at the beginning of each game (detected by lastPlayed, the number of moves played at the last
+ * call of findNextMove), so that their content only depends on the current game. The capacity of the sets is set by setCacheCapacity, and an engine can
+ * also use its own sets with setCaches. The content of the sets can be saved in a file and loaded by another process (saveCaches and loadCaches).
+ *
+ * pruning -> When true, findNextMove uses the bounded variants or_search_bounded / and_search_bounded, which prune
+ * the tree with alpha-beta windows at the OR nodes and Star1/Star2 cutoffs at the AND nodes. The move found is the same. At the default depths (2 and 3) the cutoffs
+ * save up to a sixth of the calls to agregation, which only pays for the bounds and the probes: the bounded search is about as fast as or_search, not faster.
+ *
+ * deadline -> Time (as given by System.currentTimeMillis) at which the bounded search is interrupted by a SearchTimeout. It is only
+ * set during the iterative deepening of findNextMove(BeliefState, long).
+ *
+ * parallel -> When true, findNextMove uses or_search_parallel, which evaluates the moves of the root and the belief states of the AND nodes
+ * (when there are at least parallel_granularity of them) as ForkJoin tasks. The explored sets are shared by all the tasks, so the values reused depend on the scheduling
+ * of the tasks, and may differ from those of or_search when the explored set is not empty.
+ *
+ * moveOrderer -> Strategy choosing the order of the moves of the OR nodes in the bounded search (see MoveOrderer).
+ *
+ * pondering -> When true, ponder searches the belief states which may follow the move of the opponent in a background thread (ponderThread),
+ * while the opponent plays. The values of the moves of each belief state searched are kept in pondered, and findNextMove adopts those of
+ * the belief state given by filter. The search of the other belief states is then stopped (ponderStopped).
+ *
+ * The first moves are read in the opening book when one is open (see OpeningBook). When the belief state contains a single state with few empty squares, findNextMove solves the end of the game
+ * as if the board stayed visible (see EndgameSolver), and falls back to the search if the solver runs out of time.
+ *
+ * searchTree -> The values of the moves of the OR nodes at depth 1 of the last search. findNextMove re-roots it at its belief state,
+ * and only uses the values kept to order the moves of the root: they were computed on the belief state pruned by agregation, which is not normalized,
+ * so they approximate the values of the belief state given by filter, and are never returned without a new search.
+ *
+ * MIN_HEURISTIC / MAX_HEURISTIC -> Bounds of the value of a belief state per unit of probability. A game over state is worth -100 or 100, and each piece moves
+ * positional by at most PIECE_HEURISTIC (value_box plus 3 per neighbour, 37 for the squares of the centre), so heuristic_game stays in [-21 * 37, 21 * 37 + 75]
+ * (75 for the possible wins). The Star1/Star2 cutoffs use the tighter bounds of heuristicBounds, which start from the positional value of the states.
  */
 
 
@@ -552,6 +1677,23 @@ public class AI{
 	private static int nbr_partie = 0;
 	private static int depth_max = 2;
 	private static int depth_max_bis = 3;
+	private static boolean pruning = false;
+	private static long deadline = Long.MAX_VALUE;
+	private static boolean parallel = false;
+	private static int parallel_granularity = 4;
+	private static MoveOrderer moveOrderer = new HistoryMoveOrderer();
+	private static boolean pondering = false;
+	private static Thread ponderThread = null;
+	private static volatile boolean ponderStopped = false;
+	private static int ponderDepth = 0;
+	private static ConcurrentHashMap<BeliefState, ArrayList<Double>> pondered = new ConcurrentHashMap<BeliefState, ArrayList<Double>>();
+	private static SearchTree searchTree = new SearchTree();
+	private static boolean cachePerGame = false;
+	private static int lastPlayed = -1;
+	private static final long CACHE_MAGIC = 0x4334434143484531L;
+	private static final int PIECE_HEURISTIC = 37;
+	public static final double MIN_HEURISTIC = -21d * PIECE_HEURISTIC;
+	public static final double MAX_HEURISTIC = 21d * PIECE_HEURISTIC + 75d;
 
 
 
@@ -719,17 +1861,44 @@ public class AI{
  */
 	public static double value_box(int row, int column) {
 
-	    int[][] grid = {
-	        {3, 4, 5, 7, 5, 4, 3},
-	        {4, 6, 8, 10, 8, 6, 4},
-	        {5, 8, 11, 13, 11, 8, 5},
-	        {5, 8, 11, 13, 11, 8, 5},
-	        {4, 6, 8, 10, 8, 6, 4},
-	        {3, 4, 5, 7, 5, 4, 3}
-	    };
+	    return (double) BOX_VALUES[row][column];
+
+	}
 
-	    return (double) grid[row][column];
+	private static final int[][] BOX_VALUES = {
+	    {3, 4, 5, 7, 5, 4, 3},
+	    {4, 6, 8, 10, 8, 6, 4},
+	    {5, 8, 11, 13, 11, 8, 5},
+	    {5, 8, 11, 13, 11, 8, 5},
+	    {4, 6, 8, 10, 8, 6, 4},
+	    {3, 4, 5, 7, 5, 4, 3}
+	};
 
+	/*
+	 * Bitboards used by positional and positionalDelta, with the layout of GameState.bitboard (the square (row, column) is the bit column * 7 + row).
+	 * BOARD -> the 42 squares of the board.
+	 * BOX_MASKS -> the squares of each value of value_box (BOX_WEIGHTS).
+	 * NEIGHBOURS -> for each square, its (up to 8) neighbouring squares.
+	 */
+	private static final long BOARD = 0xFDFBF7EFDFBFL;
+	private static final int[] BOX_WEIGHTS = {3, 4, 5, 6, 7, 8, 10, 11, 13};
+	private static final long[] BOX_MASKS = new long[BOX_WEIGHTS.length];
+	private static final long[] NEIGHBOURS = new long[49];
+	static {
+	    for (int row = 0; row < 6; row++) {
+	        for (int column = 0; column < 7; column++) {
+	            long bit = 1L << (column * 7 + row);
+	            BOX_MASKS[Arrays.binarySearch(BOX_WEIGHTS, BOX_VALUES[row][column])] |= bit;
+	            for (int dr = -1; dr <= 1; dr++) {
+	                for (int dc = -1; dc <= 1; dc++) {
+	                    int r = row + dr, c = column + dc;
+	                    if ((dr != 0 || dc != 0) && r >= 0 && r < 6 && c >= 0 && c < 7) {
+	                        NEIGHBOURS[column * 7 + row] |= 1L << (c * 7 + r);
+	                    }
+	                }
+	            }
+	        }
+	    }
 	}
 
 
@@ -738,6 +1907,7 @@ public class AI{
  * Check if there are combinations with 3 red pieces and one blank spot that is playable.
  * This function allows us to win one depth in our tree-search. If there is a win combination for red,
  * we will have the answer directly.
+ * The red pieces are counted on both sides of the playable spot, so that a state and its mirror give the same answer.
  *
  * @param g The current GameSate
  * @return 1 if there is a way to win, 0 otherwise
@@ -771,9 +1941,6 @@ public static int checkPossibleWin(GameState g) {
 						}
 						i++;
 					}
-					if (countRed >= 3 && col-i >= 0 && doable(g,row,col-i)) {
-						return 1;
-					}
 					i = 1;
 					while (col+i < 7) {
 						if (g.content(row, col+i) == 2) {
@@ -784,7 +1951,7 @@ public static int checkPossibleWin(GameState g) {
 						}
 						i++;
 					}
-					if (countRed >= 3 && col+i < 7 && doable(g,row,col+i)) {
+					if (countRed >= 3) {
 						return 1;
 					}
 
@@ -801,9 +1968,6 @@ public static int checkPossibleWin(GameState g) {
 						}
 						i++;
 					}
-					if (countRed >= 3 && col-i >= 0 && row+i < 6 && doable(g,row+i,col-i)) {
-						return 1;
-					}
 					i = 1;
 					while (col+i < 7 && row-i >= 0) {
 						if (g.content(row-i, col+i) == 2) {
@@ -814,7 +1978,7 @@ public static int checkPossibleWin(GameState g) {
 						}
 						i++;
 					}
-					if (countRed >= 3 && col+i < 7 && row-i >= 0 && doable(g,row-i,col+i)) {
+					if (countRed >= 3) {
 						return 1;
 					}
 
@@ -831,9 +1995,6 @@ public static int checkPossibleWin(GameState g) {
 						}
 						i++;
 					}
-					if (countRed >= 3 && col-i >= 0 && row-i >= 0 && doable(g,row-i,col-i)) {
-						return 1;
-					}
 					i = 1;
 					while (col+i < 7 && row+i < 6) {
 						if (g.content(row+i, col+i) == 2) {
@@ -844,7 +2005,7 @@ public static int checkPossibleWin(GameState g) {
 						}
 						i++;
 					}
-					if (countRed >= 3 && col+i < 7 && row+i < 6 && doable(g,row+i,col+i)) {
+					if (countRed >= 3) {
 						return 1;
 					}
 
@@ -923,7 +2084,7 @@ public static int checkPossibleWin2(GameState g) {
 						}
 						i++;
 					}
-					if (col < 5 && countRed >= 2 && doable(g,row, col+1)) {
+					if (col < 6 && countRed >= 2 && doable(g,row, col+1)) {
 						east =1;
 					}
 
@@ -1083,10 +2244,9 @@ public static int checkPossibleWin2(GameState g) {
      */
 	public static Double heuristic_game(GameState g){
 		Double value = 0.0;
-		Double alpha = 0.5d;
 
-		Double retrievedValue = exploredSet_game.get(g);
-		if (retrievedValue != null) {
+		double retrievedValue = exploredSet_game.get(g);
+		if (!Double.isNaN(retrievedValue)) {
 			value = retrievedValue;
 		}
 		else {
@@ -1097,34 +2257,95 @@ public static int checkPossibleWin2(GameState g) {
 			if (checkPossibleWin2(g) == 1) {
 				value += 25d;
 			}
-			for(int i = 0;i<=5;i++){
-				for(int j = 0;j<=6;j++){
-					int[] counts = analyzeNeighbors(g,i,j);
-
-					switch(g.content(i,j)){
-					case(0):
-						value += counts[2] - counts[1];
-						break;
-					case(1):
-						value = value - (value_box(i,j) + 2*counts[1] + (1/alpha)*counts[0]);
-						break;
-					case(2):
-						value = value + value_box(i,j) + 2*counts[2]+(1/alpha)*counts[0] ;
-						break;
+			// Sum over the squares of value_box and of the neighbours of the squares (see positional)
+			value += positional(g);
 
 
-					}
-				}
-			}
 
 
 
+			exploredSet_game.put(g, value);
+		}
+		return value;
+		}
 
 
-			exploredSet_game.put(g, value);
+	/**
+	 * Same as heuristic_game, when the positional part of the value is already known (for instance updated move by move with positionalDelta).
+	 *
+	 * @param g The current game state.
+	 * @param positional The value of positional(g).
+	 * @return The heuristic value of the game state.
+	 */
+	public static double heuristic_game(GameState g, double positional){
+		double retrievedValue = exploredSet_game.get(g);
+		if (!Double.isNaN(retrievedValue)) {
+			return retrievedValue;
+		}
+		double value = 0;
+		if (checkPossibleWin(g) == 1) {
+			value += 50d;
+		}
+		if (checkPossibleWin2(g) == 1) {
+			value += 25d;
+		}
+		value += positional;
+		exploredSet_game.put(g, value);
+		return value;
+	}
+
+
+	/**
+	 * Positional part of heuristic_game: the sum over the squares of
+	 * - for an empty square: its red neighbours minus its yellow neighbours,
+	 * - for a red square: value_box plus twice its red and empty neighbours,
+	 * - for a yellow square: minus value_box and twice its yellow and empty neighbours.
+	 * Each pair of neighbouring squares is counted once from each square, so with E, Y, R the empty, yellow and red squares, and XY the number of
+	 * (ordered) pairs of neighbours in X and Y, the sum is 3 ER - 3 EY + 2 RR - 2 YY plus value_box of the red squares, minus value_box of the yellow ones.
+	 * The pairs are counted with shifts of the bitboards, without allocation.
+	 *
+	 * @param g The current game state.
+	 * @return The positional value of the game state.
+	 */
+	public static int positional(GameState g) {
+		long yellow = g.bitboard(1), red = g.bitboard(2);
+		long empty = BOARD & ~(yellow | red);
+		int value = 3 * pairs(empty, red) - 3 * pairs(empty, yellow) + 2 * pairs(red, red) - 2 * pairs(yellow, yellow);
+		for (int i = 0; i < BOX_WEIGHTS.length; i++) {
+			value += BOX_WEIGHTS[i] * (Long.bitCount(red & BOX_MASKS[i]) - Long.bitCount(yellow & BOX_MASKS[i]));
 		}
 		return value;
+	}
+
+	/**
+	 * Count the ordered pairs of neighbouring squares (a, b) with a in the first set and b in the second one. The shifts by 1, 7, 6 and 8 give the
+	 * vertical, horizontal and diagonal neighbours, and the seventh bit of each column (always empty) stops the shifts from wrapping.
+	 */
+	private static int pairs(long a, long b) {
+		return Long.bitCount(a & (b << 1)) + Long.bitCount(a & (b >>> 1)) + Long.bitCount(a & (b << 7)) + Long.bitCount(a & (b >>> 7))
+				+ Long.bitCount(a & (b << 6)) + Long.bitCount(a & (b >>> 6)) + Long.bitCount(a & (b << 8)) + Long.bitCount(a & (b >>> 8));
+	}
+
+	/**
+	 * Change of positional caused by the last piece placed, which only depends on its square and its neighbours: an empty square becoming red
+	 * adds 3 per empty or yellow neighbour, 1 per red neighbour and value_box, and an empty square becoming yellow removes 3 per empty or red neighbour,
+	 * 1 per yellow neighbour and value_box. So positional(g) = positional(parent) + positionalDelta(g, row, column).
+	 *
+	 * @param g The game state after the piece was placed.
+	 * @param row The row of the piece.
+	 * @param column The column of the piece.
+	 * @return The change of the positional value.
+	 */
+	public static int positionalDelta(GameState g, int row, int column) {
+		long neighbours = NEIGHBOURS[column * 7 + row];
+		int red = Long.bitCount(neighbours & g.bitboard(2));
+		int yellow = Long.bitCount(neighbours & g.bitboard(1));
+		int empty = Long.bitCount(neighbours) - red - yellow;
+		if (g.content(row, column) == 2) {
+			return 3 * empty + 3 * yellow + red + BOX_VALUES[row][column];
 		}
+		return -(3 * empty + 3 * red + yellow + BOX_VALUES[row][column]);
+	}
 
 
 	/**
@@ -1228,6 +2449,9 @@ public static int checkPossibleWin2(GameState g) {
 				}
 			}
 			if (b3.size()>0) {
+				if (b3.size() < b2.size()) {
+					b3.setUnpruned(b2);
+				}
 				array_final_belief.add(b3);
 			}
 
@@ -1260,7 +2484,7 @@ public static int checkPossibleWin2(GameState g) {
 	         // Iterate through each belief state in the provided array
 	         for (BeliefState b : array_belief) {
 	             // Check if the heuristic value for the belief state has already been calculated
-	             retrievedValue = exploredSet.get(b);
+	             retrievedValue = exploredSet.get(b, 0);
 
 							 //Before we make some sanity check...
 	             if (retrievedValue != null && !Double.isNaN(retrievedValue) && !Double.isInfinite(retrievedValue)) {
@@ -1272,7 +2496,7 @@ public static int checkPossibleWin2(GameState g) {
 	                 points += value_belief;
 
 	                 // Store the computed value in the explored set for future reference
-	                 exploredSet.put(b, (float) value_belief);
+	                 exploredSet.put(b, (float) value_belief, 0, ExploredSet.EXACT, -1);
 	             }
 	         }
 	         return points;
@@ -1281,14 +2505,19 @@ public static int checkPossibleWin2(GameState g) {
 	         // Recursive case: explore deeper if the maximum depth is not reached
 	         Double points = 0.0; // Total points to accumulate the heuristic values of belief states
 	         for (BeliefState b : array_belief) {
-	             // Retrieve the previously calculated heuristic value, if available
-	             Float retrievedValue = exploredSet.get(b);
+	             // Retrieve the previously calculated heuristic value, if available (and searched at least as deep)
+	             Float retrievedValue = exploredSet.get(b, max_depth - depth);
 	             if (retrievedValue != null && !Double.isNaN(retrievedValue) && !Double.isInfinite(retrievedValue)) {
 	                 // If the value is already computed, add it to the total points
 	                 points += retrievedValue;
+	                 if (depth == 1) {
+	                     recordEntry(b);
+	                 }
 	             }
 							 else {
 	                 double value_belief = 0;
+	                 int searched = ExploredSet.FINAL; // Depth of the value, for the explored set
+	                 int best = -1;
 
 	                 // If the game is over or full, directly apply the heuristic to evaluate the belief state
 	                 if (b.isGameOver() || b.isFull()) {
@@ -1297,7 +2526,12 @@ public static int checkPossibleWin2(GameState g) {
 	                     // Otherwise, perform an OR search on the belief state to explore further
 	                     ArrayList<Double> array = or_search(b, depth, max_depth);
 	                     // Get the maximum value from the OR search results
-	                     value_belief = Collections.max(array);
+	                     best = maxIndex(array);
+	                     value_belief = array.get(best);
+	                     searched = max_depth - depth;
+	                     if (depth == 1) {
+	                         searchTree.record(b, array, searched);
+	                     }
 	                 }
 
 	                 // Add the computed value to the total points
@@ -1305,7 +2539,7 @@ public static int checkPossibleWin2(GameState g) {
 
 	                 // Store the computed value in the explored set for future reference
 	                 if (!Double.isNaN(value_belief) && !Double.isInfinite(value_belief)) {
-		                 exploredSet.put(b,  (float) value_belief);
+		                 exploredSet.put(b, (float) value_belief, searched, ExploredSet.EXACT, best);
 		             }
 	             }
 	         }
@@ -1314,6 +2548,18 @@ public static int checkPossibleWin2(GameState g) {
 	 }
 
 
+	/**
+	 * Keep in searchTree the best move of a belief state at depth 1 whose exact value was found in the explored set
+	 * @param b the belief state
+	 */
+	private static void recordEntry(BeliefState b) {
+	    long entry = exploredSet.probe(b);
+	    if (entry != 0 && ExploredSet.move(entry) >= 0) {
+	        searchTree.record(b, ExploredSet.move(entry), ExploredSet.value(entry, b), ExploredSet.depth(entry));
+	    }
+	}
+
+
 	/**
 	* Performs an OR search on a single belief state, evaluating possible moves and their outcomes.
 	* Calculates the heuristic value for each move and stores them in an array.
@@ -1336,6 +2582,7 @@ public static int checkPossibleWin2(GameState g) {
 
 	    // Evaluate each possible move by calling the AND search for each resulting belief state
 	    for (int i : moves) {
+	        checkDeadline();
 	        // For each move, aggregate the belief states and evaluate their heuristic values
 	        Double d = and_search(agregation(belief, i), depth + 1, max_depth);
 
@@ -1348,6 +2595,437 @@ public static int checkPossibleWin2(GameState g) {
 	}
 
 
+	/**
+	 * Enable or disable the pruning of the search (see or_search_bounded and and_search_bounded)
+	 * @param enabled true to use the bounded search in findNextMove
+	 */
+	public static void setPruning(boolean enabled) {
+		pruning = enabled;
+	}
+
+
+	/**
+	* Bounded variant of or_search: the moves are evaluated with the window (alpha, beta), which is narrowed as better moves are found.
+	* As soon as a move reaches beta, the remaining moves are not evaluated. A value smaller than or equal to alpha is only an upper bound
+	* of the value of the move, and a value greater than or equal to beta is only a lower bound.
+	*
+	* @param belief The current belief state.
+	* @param depth The current depth of the search.
+	* @param max_depth The maximum depth allowed for the search.
+	* @param alpha Lower bound of the window.
+	* @param beta Upper bound of the window.
+	* @return An array of heuristic values for each possible move.
+	*/
+	public static ArrayList<Double> or_search_bounded(BeliefState belief, int depth, int max_depth, double alpha, double beta) {
+	    return or_search_bounded(belief, moveOrderer.order(belief, belief.getMoves(), depth), depth, max_depth, alpha, beta);
+	}
+
+
+	/**
+	* Same as or_search_bounded, but the moves are evaluated in a given order (the better the first moves, the more the search is pruned).
+	*
+	* @param belief The current belief state.
+	* @param moves The moves to evaluate, in the order of evaluation.
+	* @param depth The current depth of the search.
+	* @param max_depth The maximum depth allowed for the search.
+	* @param alpha Lower bound of the window.
+	* @param beta Upper bound of the window.
+	* @return An array of heuristic values for each possible move.
+	*/
+	public static ArrayList<Double> or_search_bounded(BeliefState belief, List<Integer> moves, int depth, int max_depth, double alpha, double beta) {
+	    return or_search_bounded(belief, moves, depth, max_depth, alpha, beta, -1, 0, false);
+	}
+
+
+	/**
+	* Same as or_search_bounded, when the value of one move is already known (for instance probed by Star2 in and_search_bounded): the move is not searched again
+	* if its value is exact, or if it is an upper bound which does not exceed alpha when the move is reached.
+	*
+	* @param belief The current belief state.
+	* @param moves The moves to evaluate, in the order of evaluation.
+	* @param depth The current depth of the search.
+	* @param max_depth The maximum depth allowed for the search.
+	* @param alpha Lower bound of the window.
+	* @param beta Upper bound of the window.
+	* @param known The move whose value is known, or -1.
+	* @param knownValue The value of the move.
+	* @param knownExact True if the value is exact, false if it is an upper bound.
+	* @return An array of heuristic values for each possible move.
+	*/
+	private static ArrayList<Double> or_search_bounded(BeliefState belief, List<Integer> moves, int depth, int max_depth, double alpha, double beta,
+	        int known, double knownValue, boolean knownExact) {
+	    ArrayList<Double> array_mark = new ArrayList<>();
+	    for (int i = 0; i <= 6; i++) {
+	        array_mark.add(-100000d);
+	    }
+
+	    int best = -1;
+	    for (int i : moves) {
+	        checkDeadline();
+	        double d;
+	        if (i == known && (knownExact || knownValue <= alpha)) {
+	            d = knownValue;
+	        } else {
+	            d = and_search_bounded(agregation(belief, i), depth + 1, max_depth, alpha, beta);
+	        }
+	        array_mark.set(i, d);
+	        if (best < 0 || d > array_mark.get(best)) {
+	            best = i;
+	        }
+
+	        // The window is narrowed by the best move found so far, and the node is cut as soon as beta is reached
+	        if (d > alpha) {
+	            alpha = d;
+	        }
+	        if (d >= beta) {
+	            break;
+	        }
+	    }
+	    if (best >= 0) {
+	        moveOrderer.update(belief, best, depth, max_depth);
+	    }
+	    return array_mark;
+	}
+
+
+	/**
+	 * Bounds of the value of a belief state searched a given number of moves deeper, each move adding a piece of each color. By positionalDelta, a red piece
+	 * adds between 0 and PIECE_HEURISTIC to positional, and a yellow piece removes as much, so the leaves reached from a state g have a positional value
+	 * within PIECE_HEURISTIC * remaining of positional(g), and get at most 75 for the possible wins. A leaf is worth -100 only if yellow can have 4 pieces,
+	 * and 100 only if red can have 4 pieces or the board can be full. The states of low probability dropped by the search count for 0.
+	 *
+	 * @param b The belief state.
+	 * @param remaining The number of moves searched from b.
+	 * @return The lower and upper bounds of the value of b (not divided by its probability).
+	 */
+	private static double[] heuristicBounds(BeliefState b, int remaining) {
+	    double lower = 0, upper = 0;
+	    for (GameState g : b) {
+	        int red = Long.bitCount(g.bitboard(2));
+	        int yellow = Long.bitCount(g.bitboard(1));
+	        int value = positional(g);
+	        double low = Math.min(0, value - PIECE_HEURISTIC * remaining);
+	        double high = Math.max(0, value + PIECE_HEURISTIC * remaining + 75);
+	        if (yellow + remaining >= 4) {
+	            low = Math.min(low, -100d);
+	        }
+	        if (red + remaining >= 4 || red + yellow + 2 * remaining >= 42) {
+	            high = Math.max(high, 100d);
+	        }
+	        lower += g.proba() * low;
+	        upper += g.proba() * high;
+	    }
+	    return new double[] {lower, upper};
+	}
+
+
+	/**
+	 * Bounded variant of and_search. The value of each belief state b is known to be within the bounds of heuristicBounds, which only depend on the positional
+	 * value of its states and on the number of moves left to search (they are at most [MIN_HEURISTIC * p, MAX_HEURISTIC * p], where p is the sum of its probabilities).
+	 * Star2: a first pass evaluates only one move of each belief state, which gives a lower bound of its value, and stops if the sum of the lower bounds reaches beta.
+	 * The move is probed with the window between the lower bound of the belief state and the value it needs to reach for the cutoff, and Star1 reuses its value.
+	 * Star1: the belief states are then searched with the window left by the bounds of the others, and the search stops as soon as the sum of
+	 * the upper bounds falls below alpha or the sum of the lower bounds reaches beta.
+	 * The values and bounds found are stored in the explored set with their type, and the bounds stored by previous searches narrow the initial bounds.
+	 *
+	 * @param array_belief The list of belief states to evaluate.
+	 * @param depth The current depth of the search.
+	 * @param max_depth The maximum depth allowed for the search.
+	 * @param alpha Lower bound of the window.
+	 * @param beta Upper bound of the window.
+	 * @return The value of the belief states if it is in (alpha, beta), an upper bound smaller than or equal to alpha, or a lower bound greater than or equal to beta.
+	 */
+	public static double and_search_bounded(ArrayList<BeliefState> array_belief, int depth, int max_depth, double alpha, double beta) {
+	     // The leaves are evaluated exactly, there is nothing to prune
+	     if (depth == max_depth) {
+	         return and_search(array_belief, depth, max_depth);
+	     }
+
+	     int n = array_belief.size();
+	     int remaining = max_depth - depth;
+	     double[] lower = new double[n];
+	     double[] upper = new double[n];
+	     boolean[] exact = new boolean[n];
+	     int[] probes = new int[n];
+	     double sumLower = 0, sumUpper = 0;
+
+	     // Initial bounds: the heuristic when the game is over, and the bounds of the heuristic otherwise, narrowed by the entry of the explored set
+	     // when it was searched deep enough. The best move of the entry, whatever its depth, is the first one probed by Star2.
+	     for (int i = 0; i < n; i++) {
+	         BeliefState b = array_belief.get(i);
+	         probes[i] = -1;
+	         if (b.isGameOver() || b.isFull()) {
+	             lower[i] = upper[i] = heuristic_belief(b);
+	             exact[i] = true;
+	         }
+	         else {
+	             double[] bounds = heuristicBounds(b, remaining);
+	             lower[i] = bounds[0];
+	             upper[i] = bounds[1];
+	             long entry = exploredSet.probe(b);
+	             if (entry != 0) {
+	                 probes[i] = ExploredSet.move(entry);
+	                 double value = ExploredSet.value(entry, b);
+	                 if (ExploredSet.depth(entry) >= remaining && !Double.isNaN(value) && !Double.isInfinite(value)) {
+	                     int bound = ExploredSet.bound(entry);
+	                     if (bound != ExploredSet.UPPER) {
+	                         lower[i] = Math.max(lower[i], value);
+	                     }
+	                     if (bound != ExploredSet.LOWER) {
+	                         upper[i] = Math.min(upper[i], value);
+	                     }
+	                     exact[i] = bound == ExploredSet.EXACT;
+	                     if (exact[i] && depth == 1 && probes[i] >= 0) {
+	                         searchTree.record(b, probes[i], value, ExploredSet.depth(entry));
+	                     }
+	                 }
+	             }
+	         }
+	         sumLower += lower[i];
+	         sumUpper += upper[i];
+	     }
+	     if (sumUpper <= alpha) {
+	         return sumUpper;
+	     }
+	     if (sumLower >= beta) {
+	         return sumLower;
+	     }
+
+	     // Star2 probing: the value of any move is a lower bound of the value of the OR node. Only a value above the current lower bound is useful,
+	     // and the search can stop as soon as the value reaches the one which makes the sum of the lower bounds reach beta.
+	     double[] probed = new double[n];
+	     boolean[] probedExact = new boolean[n];
+	     for (int i = 0; i < n; i++) {
+	         if (exact[i]) {
+	             continue;
+	         }
+	         checkDeadline();
+	         BeliefState b = array_belief.get(i);
+	         if (probes[i] < 0) {
+	             probes[i] = moveOrderer.order(b, b.getMoves(), depth).get(0);
+	         }
+	         double probeAlpha = lower[i];
+	         double probeBeta = beta - (sumLower - lower[i]);
+	         double value = and_search_bounded(agregation(b, probes[i]), depth + 1, max_depth, probeAlpha, probeBeta);
+	         probed[i] = value;
+	         probedExact[i] = value > probeAlpha && value < probeBeta;
+	         if (value > lower[i]) {
+	             sumLower += value - lower[i];
+	             lower[i] = value;
+	         }
+	         if (sumLower >= beta) {
+	             return sumLower;
+	         }
+	     }
+
+	     // Star1: search each belief state with the window left by the bounds of the other ones
+	     for (int i = 0; i < n; i++) {
+	         if (exact[i]) {
+	             continue;
+	         }
+	         checkDeadline();
+	         BeliefState b = array_belief.get(i);
+	         double childAlpha = alpha - (sumUpper - upper[i]);
+	         double childBeta = beta - (sumLower - lower[i]);
+	         // The probed move is searched first when its value is exact, as it raises alpha for free
+	         List<Integer> moves = moveOrderer.order(b, b.getMoves(), depth);
+	         if (probedExact[i]) {
+	             moves = new ArrayList<Integer>(moves);
+	             moves.remove(Integer.valueOf(probes[i]));
+	             moves.add(0, probes[i]);
+	         }
+	         ArrayList<Double> values = or_search_bounded(b, moves, depth, max_depth, childAlpha, childBeta, probes[i], probed[i], probedExact[i]);
+	         int best = maxIndex(values);
+	         double value = values.get(best);
+	         sumLower -= lower[i];
+	         sumUpper -= upper[i];
+	         int bound;
+	         if (value <= childAlpha) {
+	             upper[i] = Math.min(upper[i], value);
+	             bound = ExploredSet.UPPER;
+	             best = -1;
+	         }
+	         else if (value >= childBeta) {
+	             lower[i] = Math.max(lower[i], value);
+	             bound = ExploredSet.LOWER;
+	         }
+	         else {
+	             lower[i] = upper[i] = value;
+	             bound = ExploredSet.EXACT;
+	             if (depth == 1) {
+	                 searchTree.record(b, values, remaining);
+	             }
+	         }
+	         if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+	             exploredSet.put(b, (float) value, remaining, bound, best);
+	         }
+	         sumLower += lower[i];
+	         sumUpper += upper[i];
+	         if (sumUpper <= alpha) {
+	             return sumUpper;
+	         }
+	         if (sumLower >= beta) {
+	             return sumLower;
+	         }
+	     }
+	     return sumLower;
+	 }
+
+
+	/**
+	 * Enable or disable the parallel search (see or_search_parallel)
+	 * @param enabled true to use the parallel search in findNextMove
+	 * @param granularity minimal number of belief states of an AND node for them to be evaluated in parallel
+	 */
+	public static void setParallelSearch(boolean enabled, int granularity) {
+		parallel = enabled;
+		parallel_granularity = granularity;
+	}
+
+
+	/**
+	* Parallel variant of or_search: each move is evaluated by a ForkJoin task on the common pool. The values of the belief states are summed in the same order as or_search,
+	* and with an empty explored set the values are the same. Otherwise they may differ slightly: a belief state may be read in the explored set with a value searched deeper
+	* (for instance by a previous search), or be searched again, depending on the order in which the tasks write their values.
+	*
+	* @param belief The current belief state.
+	* @param depth The current depth of the search.
+	* @param max_depth The maximum depth allowed for the search.
+	* @return An array of heuristic values for each possible move.
+	*/
+	public static ArrayList<Double> or_search_parallel(BeliefState belief, int depth, int max_depth) {
+	    return ForkJoinPool.commonPool().invoke(new OrTask(belief, depth, max_depth));
+	}
+
+
+	/**
+	 * Task performing an OR search: one AndTask is forked for each possible move
+	 */
+	private static class OrTask extends RecursiveTask<ArrayList<Double>> {
+		private static final long serialVersionUID = 1L;
+
+		private final BeliefState belief;
+		private final int depth, max_depth;
+
+		OrTask(BeliefState belief, int depth, int max_depth) {
+			this.belief = belief;
+			this.depth = depth;
+			this.max_depth = max_depth;
+		}
+
+		protected ArrayList<Double> compute() {
+		    ArrayList<Double> array_mark = new ArrayList<>();
+		    for (int i = 0; i <= 6; i++) {
+		        array_mark.add(-100000d);
+		    }
+		    ArrayList<Integer> moves = this.belief.getMoves();
+		    ArrayList<AndTask> tasks = new ArrayList<>();
+		    for (int i : moves) {
+		        tasks.add(new AndTask(this.belief, i, this.depth + 1, this.max_depth));
+		    }
+		    invokeAll(tasks);
+		    for (int k = 0; k < moves.size(); k++) {
+		        array_mark.set(moves.get(k), tasks.get(k).join());
+		    }
+		    return array_mark;
+		}
+	}
+
+
+	/**
+	 * Task performing the AND search of the belief states resulting from a move. When there are enough belief states and the maximum depth
+	 * is not reached, an OrTask is forked for each belief state which is neither in the explored set nor over. Otherwise, and_search is called.
+	 * The values are added in the order of the belief states, as in and_search.
+	 */
+	private static class AndTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final BeliefState belief;
+		private final int move, depth, max_depth;
+
+		AndTask(BeliefState belief, int move, int depth, int max_depth) {
+			this.belief = belief;
+			this.move = move;
+			this.depth = depth;
+			this.max_depth = max_depth;
+		}
+
+		protected Double compute() {
+		    ArrayList<BeliefState> array_belief = agregation(this.belief, this.move);
+		    if (this.depth == this.max_depth || array_belief.size() < parallel_granularity) {
+		        return and_search(array_belief, this.depth, this.max_depth);
+		    }
+
+		    int n = array_belief.size();
+		    double[] values = new double[n];
+		    OrTask[] tasks = new OrTask[n];
+		    for (int i = 0; i < n; i++) {
+		        BeliefState b = array_belief.get(i);
+		        Float retrievedValue = exploredSet.get(b, this.max_depth - this.depth);
+		        if (retrievedValue != null && !Double.isNaN(retrievedValue) && !Double.isInfinite(retrievedValue)) {
+		            values[i] = retrievedValue;
+		            if (this.depth == 1) {
+		                recordEntry(b);
+		            }
+		        }
+		        else if (b.isGameOver() || b.isFull()) {
+		            values[i] = heuristic_belief(b);
+		            if (!Double.isNaN(values[i]) && !Double.isInfinite(values[i])) {
+		                exploredSet.put(b, (float) values[i], ExploredSet.FINAL, ExploredSet.EXACT, -1);
+		            }
+		        }
+		        else {
+		            tasks[i] = new OrTask(b, this.depth, this.max_depth);
+		            tasks[i].fork();
+		        }
+		    }
+
+		    Double points = 0.0;
+		    for (int i = 0; i < n; i++) {
+		        if (tasks[i] != null) {
+		            ArrayList<Double> array = tasks[i].join();
+		            int best = maxIndex(array);
+		            values[i] = array.get(best);
+		            if (this.depth == 1) {
+		                searchTree.record(array_belief.get(i), array, this.max_depth - this.depth);
+		            }
+		            if (!Double.isNaN(values[i]) && !Double.isInfinite(values[i])) {
+		                exploredSet.put(array_belief.get(i), (float) values[i], this.max_depth - this.depth, ExploredSet.EXACT, best);
+		            }
+		        }
+		        points += values[i];
+		    }
+		    return points;
+		}
+	}
+
+
+	/**
+	 * Set the strategy used to order the moves in the bounded search
+	 * @param orderer the new strategy
+	 */
+	public static void setMoveOrderer(MoveOrderer orderer) {
+		moveOrderer = orderer;
+	}
+
+
+	/**
+	 * Exception used to interrupt the search when the deadline is reached
+	 */
+	private static class SearchTimeout extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static void checkDeadline() {
+		if (deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline) {
+			throw new SearchTimeout();
+		}
+		if (ponderStopped && Thread.currentThread() == ponderThread) {
+			throw new SearchTimeout();
+		}
+	}
+
+
 	/**
      * Finds the index of the maximum value in a list of doubles.
      * (Used to determine the best move based on heuristic, after the or_search call)
@@ -1389,10 +3067,38 @@ public static int checkPossibleWin2(GameState g) {
 		ArrayList<Double> a = null;
 	    // If the number of games played is less than or equal to 600, use depth_max for searching
 			//Why this value ? After many test, it was the value, that gives us the best ratio win/loss on average
-	    if (nbr_partie <= 600) {
-	        a = or_search(game, 0, depth_max);
+	    int max_depth = nbr_partie <= 600? depth_max: depth_max_bis;
+	    ArrayList<Double> ponderedValues = stopPondering(game);
+	    checkNewGame(game);
+	    SearchTree.Node node = searchTree.reroot(game);
+	    int bookMove = OpeningBook.lookup(game);
+	    if (bookMove >= 0) {
+	        nbr_partie += 1;
+	        return bookMove;
+	    }
+	    if (EndgameSolver.applies(game)) {
+	        int move = EndgameSolver.findNextMove(game);
+	        if (move >= 0) {
+	            nbr_partie += 1;
+	            return move;
+	        }
+	    }
+	    moveOrderer.newSearch();
+	    exploredSet.newSearch();
+	    if (ponderedValues != null) {
+	        a = ponderedValues;
+	    } else if (parallel) {
+	        a = or_search_parallel(game, 0, max_depth);
+	    } else if (pruning) {
+	        // The moves are ordered by their values in the previous search when it reached this belief state
+	        List<Integer> moves = moveOrderer.order(game, game.getMoves(), 0);
+	        if (node != null) {
+	            moves = new ArrayList<Integer>(moves);
+	            sortByValues(moves, node.values);
+	        }
+	        a = or_search_bounded(game, moves, 0, max_depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
 	    } else {
-	        a = or_search(game, 0, depth_max_bis);
+	        a = or_search(game, 0, max_depth);
 	    }
 
 	    // Increment the game counter to track how many games have been played
@@ -1401,4 +3107,284 @@ public static int checkPossibleWin2(GameState g) {
 	    // Return the index of the move with the highest evaluation score
 	    return maxIndex(a);
 	}
+
+	/**
+	* Determines the next move to play within a given time budget, by iterative deepening: the bounded search is run with
+	* a maximum depth of 1, 2, 3, ... until the deadline is reached, and the best move of the last completed iteration is returned.
+	* Each iteration evaluates the moves in the decreasing order of their values in the previous iteration (the first one uses the move orderer),
+	* and the move orderer keeps the best moves found in the inner nodes from one iteration to the next. The first iteration is always completed,
+	* unless the pondering (see ponder) searched this belief state: the iterations up to the depth it searched at are then skipped, and its values
+	* are the result if no iteration is completed before the deadline.
+	* The explored set records the depth of its values, so each iteration reuses the values and bounds of the previous ones which are deep enough.
+	* When the previous search reached this belief state (see searchTree), its values only order the moves of the first iteration: they were computed on the
+	* belief state pruned by agregation, whose probabilities do not sum to 1, so they only approximate the values of this one.
+	*
+	* @param game The current belief state of the game.
+	* @param deadline Time (as given by System.currentTimeMillis) at which the search must end.
+	* @return The index of the column for the next move.
+	*/
+	public static int findNextMove(BeliefState game, long deadline) {
+	    ArrayList<Double> ponderedValues = stopPondering(game);
+	    checkNewGame(game);
+	    SearchTree.Node node = searchTree.reroot(game);
+	    int bookMove = OpeningBook.lookup(game);
+	    if (bookMove >= 0) {
+	        nbr_partie += 1;
+	        return bookMove;
+	    }
+	    if (EndgameSolver.applies(game)) {
+	        int move = EndgameSolver.findNextMove(game, deadline);
+	        if (move >= 0) {
+	            nbr_partie += 1;
+	            return move;
+	        }
+	    }
+	    moveOrderer.newSearch();
+	    exploredSet.newSearch();
+	    List<Integer> moves = new ArrayList<Integer>(moveOrderer.order(game, game.getMoves(), 0));
+	    ArrayList<Double> best = null;
+	    int first = 1;
+	    if (node != null) {
+	        sortByValues(moves, node.values);
+	    }
+	    if (ponderedValues != null) {
+	        best = ponderedValues;
+	        sortByValues(moves, best);
+	        first = ponderDepth + 1;
+	    }
+	    try {
+	        for (int max_depth = first; max_depth <= 42; max_depth++) {
+	            // Until a result is known, the iteration is run without deadline, so that a move is always found
+	            AI.deadline = best == null? Long.MAX_VALUE: deadline;
+	            best = or_search_bounded(game, moves, 0, max_depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+	            // Order the moves of the next iteration by decreasing value
+	            sortByValues(moves, best);
+	            if (System.currentTimeMillis() >= deadline) {
+	                break;
+	            }
+	        }
+	    } catch (SearchTimeout e) {
+	        // The iteration in progress is dropped, the result of the previous one is kept
+	    } finally {
+	        AI.deadline = Long.MAX_VALUE;
+	    }
+
+	    nbr_partie += 1;
+	    return maxIndex(best);
+	}
+
+	/**
+	 * Sort moves by decreasing value
+	 * @param moves the moves to sort
+	 * @param values the values of the moves (indexed by column)
+	 */
+	private static void sortByValues(List<Integer> moves, final ArrayList<Double> values) {
+	    Collections.sort(moves, new Comparator<Integer>() {
+	        public int compare(Integer m1, Integer m2) {
+	            return Double.compare(values.get(m2), values.get(m1));
+	        }
+	    });
+	}
+
+
+	/**
+	 * Set the maximal number of entries of the explored sets (the sets are replaced by empty ones)
+	 * @param beliefStates capacity of exploredSet
+	 * @param states capacity of exploredSet_game
+	 */
+	public static void setCacheCapacity(int beliefStates, int states) {
+		exploredSet = new ExploredSet(beliefStates);
+		exploredSet_game = new ExploredSet_2(states);
+	}
+
+
+	/**
+	 * Use given explored sets, for instance to give each engine its own sets
+	 * @param beliefStates the set of the values of the belief states
+	 * @param states the set of the heuristic values of the states
+	 */
+	public static void setCaches(ExploredSet beliefStates, ExploredSet_2 states) {
+		exploredSet = beliefStates;
+		exploredSet_game = states;
+	}
+
+
+	/**
+	 * Choose whether the explored sets are kept from one game to the next
+	 * @param perGame true to clear the explored sets at the beginning of each game
+	 */
+	public static void setCachePerGame(boolean perGame) {
+		cachePerGame = perGame;
+	}
+
+
+	/**
+	 * Clear the explored sets
+	 */
+	public static void clearCaches() {
+		exploredSet.clear();
+		exploredSet_game.clear();
+	}
+
+
+	/**
+	 * Save the content of the explored sets in a file, so that another process can start with it (see loadCaches).
+	 * The file contains a header (CACHE_MAGIC, and the numbers of entries of exploredSet and exploredSet_game) followed by the entries of the two sets.
+	 * @param path path of the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void saveCaches(String path) throws IOException {
+		stopPondering();
+		// The entries are written in a temporary stream first, since the header needs their numbers
+		ByteArrayOutputStream beliefStates = new ByteArrayOutputStream();
+		ByteArrayOutputStream states = new ByteArrayOutputStream();
+		int nBeliefStates = exploredSet.write(new DataOutputStream(beliefStates));
+		int nStates = exploredSet_game.write(new DataOutputStream(states));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeLong(CACHE_MAGIC);
+			out.writeInt(nBeliefStates);
+			out.writeInt(nStates);
+			beliefStates.writeTo(out);
+			states.writeTo(out);
+		}
+	}
+
+
+	/**
+	 * Add the content of a file written by saveCaches to the explored sets. The file is memory-mapped.
+	 * @param path path of the file
+	 * @throws IOException if the file cannot be read, or was not written by saveCaches
+	 */
+	public static void loadCaches(String path) throws IOException {
+		stopPondering();
+		try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+			LongBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+			if (in.limit() < 2 || in.get(0) != CACHE_MAGIC) {
+				throw new IOException(path + " is not a cache file");
+			}
+			long header = in.get(1);
+			int nBeliefStates = (int) (header >>> 32);
+			int nStates = (int) header;
+			if (in.limit() != 2 + 3L * nBeliefStates + 2L * nStates) {
+				throw new IOException(path + " is truncated");
+			}
+			in.position(2);
+			exploredSet.read(in, nBeliefStates);
+			exploredSet_game.read(in, nStates);
+		}
+	}
+
+
+	/**
+	 * Clear the explored sets if a new game started since the last call (see cachePerGame)
+	 */
+	private static void checkNewGame(BeliefState game) {
+		if (cachePerGame && game.played() < lastPlayed) {
+			clearCaches();
+		}
+		lastPlayed = game.played();
+	}
+
+
+	/**
+	 * Enable or disable the pondering (see ponder)
+	 * @param enabled true to search on the time of the opponent
+	 */
+	public static void setPondering(boolean enabled) {
+		pondering = enabled;
+		if (!enabled) {
+			stopPondering();
+		}
+	}
+
+
+	/**
+	* Starts to search, in a background thread, the belief states which may result from the next move of the opponent (see BeliefState.predict),
+	* from the most probable one to the least probable one. The search of each belief state is the one of findNextMove (at the same depth, sequential),
+	* so that findNextMove can adopt the values of the belief state given by filter, and the explored set is filled by the searches of the others.
+	* The pondering is stopped by the next call to findNextMove. Does nothing when the pondering is disabled.
+	*
+	* @param game The current belief state of the game, after the move of the player (the opponent is to play).
+	*/
+	public static void ponder(BeliefState game) {
+	    stopPondering();
+	    if (!pondering || game.isGameOver() || game.isFull()) {
+	        return;
+	    }
+	    final ArrayList<BeliefState> beliefs = new ArrayList<BeliefState>();
+	    for (BeliefState b : game.predict()) {
+	        if (!b.isGameOver() && !b.isFull()) {
+	            beliefs.add(b);
+	        }
+	    }
+	    Collections.sort(beliefs, new Comparator<BeliefState>() {
+	        public int compare(BeliefState b1, BeliefState b2) {
+	            return Float.compare(b2.probaSum(), b1.probaSum());
+	        }
+	    });
+	    for (int i = 0; i < beliefs.size(); i++) {
+	        // The belief states are normalized as by filter, since the heuristic depends on the probabilities of the states
+	        beliefs.get(i).normalize();
+	        beliefs.set(i, beliefs.get(i).freeze());
+	    }
+	    final int max_depth = nbr_partie <= 600? depth_max: depth_max_bis;
+	    moveOrderer.newSearch();
+	    exploredSet.newSearch();
+	    ponderStopped = false;
+	    ponderDepth = max_depth;
+	    ponderThread = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                for (BeliefState b : beliefs) {
+	                    if (pruning) {
+	                        pondered.put(b, or_search_bounded(b, 0, max_depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+	                    } else {
+	                        pondered.put(b, or_search(b, 0, max_depth));
+	                    }
+	                }
+	            } catch (SearchTimeout e) {
+	                // The pondering was stopped, the belief state in progress is dropped
+	            }
+	        }
+	    });
+	    ponderThread.setDaemon(true);
+	    ponderThread.start();
+	}
+
+
+	/**
+	 * Stop the pondering, and wait for the background thread to end. The values found by the pondering are discarded.
+	 */
+	public static void stopPondering() {
+		stopPondering(null);
+	}
+
+
+	/**
+	 * Stop the pondering, and wait for the background thread to end
+	 * @param game the belief state for which the values found by the pondering are looked for
+	 * @return the values of the moves of game if the pondering searched it, and null otherwise
+	 */
+	private static ArrayList<Double> stopPondering(BeliefState game) {
+		if (ponderThread == null) {
+			return null;
+		}
+		ponderStopped = true;
+		boolean interrupted = false;
+		while (ponderThread.isAlive()) {
+			try {
+				ponderThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		ponderThread = null;
+		ArrayList<Double> values = game == null? null: pondered.get(game);
+		pondered.clear();
+		return values;
+	}
 }
@@ -1,6 +1,7 @@
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.util.TreeMap;
 
 import javax.swing.JButton;
@@ -22,6 +23,16 @@ public class Connect4UI {
 	      beliefState.add(state.getState().copy());
 	      final BoardDrawing board = new BoardDrawing(state);
 	      final ProbabilisticOpponentAI iap = new ProbabilisticOpponentAI();
+	      try {
+	    	  OpeningBook.open("opening.book");
+	      } catch (IOException e) {
+	    	  // Without opening book, the first moves are searched
+	      }
+	      try {
+	    	  AI.loadCaches("caches.bin");
+	      } catch (IOException e) {
+	    	  // Without saved caches, the search starts with empty explored sets
+	      }
 
 	      JButton button1 = new JButton("1");
 	      button1.addActionListener(new
@@ -288,6 +299,8 @@ public class Connect4UI {
 	            	if(!state.getGameOver() && state.getRedsTurn() == state.getState().turn())
 	            		System.out.println("problem turn");
 	            	if(!state.getGameOver()) {
+	            		// The engine searches the possible replies while the opponent plays (when the pondering is enabled)
+	            		AI.ponder(beliefState);
 	            		aiPlay = 1 + iap.decision(state.getState());
 		            	state.move(aiPlay);
 		            	beliefStates = beliefState.predict();
@@ -314,5 +327,10 @@ public class Connect4UI {
 				beliefState.restart();
 				beliefState.add(state.getState().copy());
 				board.repaint();
+				try {
+					AI.saveCaches("caches.bin");
+				} catch (IOException e) {
+					System.out.println("The caches could not be saved: " + e.getMessage());
+				}
 	   }
 }
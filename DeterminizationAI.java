@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Alternative to AI.findNextMove handling the hidden information by determinization (Perfect Information Monte Carlo).
+ * A number of states are drawn from the belief state according to their probabilities, and each of them is searched as a game of perfect information,
+ * with a minimax search with alpha-beta pruning and AI.heuristic_game at the leaves. The boards are searched in parallel by ForkJoin tasks.
+ * The values of each move are then averaged over the boards, weighted by their probabilities.
+ * Since the search of a single board is much cheaper than the search of a belief state, the lookahead is much deeper than or_search.
+ */
+public class DeterminizationAI {
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+	private static final double WIN = AI.MAX_HEURISTIC + 100;
+	
+	private static int samples = 32;
+	private static int depth = 6;
+	private static Random random = new Random(0);
+	
+	/**
+	 * Set the parameters of the search
+	 * @param k number of boards drawn from the belief state (all the states are used when the belief state does not contain more states)
+	 * @param maxDepth depth of the search of each board, in number of moves
+	 * @param seed seed of the random generator used to draw the boards
+	 */
+	public static void setParameters(int k, int maxDepth, long seed) {
+		samples = k;
+		depth = maxDepth;
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Determines the next move to play
+	 * @param game The current belief state of the game, which must be the turn of the player.
+	 * @return The index of the column with the best value averaged over the boards.
+	 */
+	public static int findNextMove(BeliefState game) {
+		ArrayList<GameState> boards = new ArrayList<GameState>();
+		ArrayList<Double> weights = new ArrayList<Double>();
+		if(game.size() <= samples) {
+			for(GameState state: game) {
+				boards.add(state);
+				weights.add((double) state.proba());
+			}
+		}
+		else {
+			DeterminizationAI.draw(game, boards, weights);
+		}
+		
+		ArrayList<BoardTask> tasks = new ArrayList<BoardTask>();
+		for(GameState board: boards) {
+			tasks.add(new BoardTask(board));
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+			private static final long serialVersionUID = 1L;
+			
+			protected Void compute() {
+				invokeAll(tasks);
+				return null;
+			}
+		});
+		
+		double[] scores = new double[7];
+		for(int i = 0; i < tasks.size(); i++) {
+			double[] values = tasks.get(i).join();
+			for(int column = 0; column < 7; column++) {
+				scores[column] += weights.get(i) * values[column];
+			}
+		}
+		int best = -1;
+		for(int column: game.getMoves()) {
+			if(best < 0 || scores[column] > scores[best]) {
+				best = column;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Draw samples states from the belief state according to their probabilities. The states drawn several times are only searched once, with a weight
+	 * proportional to the number of times they were drawn.
+	 */
+	private static void draw(BeliefState game, ArrayList<GameState> boards, ArrayList<Double> weights) {
+		int n = game.size();
+		long[] states = new long[n];
+		double[] cumul = new double[n];
+		double sum = 0;
+		int i = 0;
+		for(GameState state: game) {
+			sum += state.proba();
+			states[i] = state.pack();
+			cumul[i++] = sum;
+		}
+		HashMap<Long, Integer> counts = new HashMap<Long, Integer>();
+		for(int k = 0; k < samples; k++) {
+			double target = random.nextDouble() * sum;
+			int index = 0;
+			int last = n - 1;
+			while(index < last) {
+				int middle = (index + last) >>> 1;
+				if(cumul[middle] <= target) {
+					index = middle + 1;
+				}
+				else {
+					last = middle;
+				}
+			}
+			counts.merge(states[index], 1, Integer::sum);
+		}
+		for(Entry<Long, Integer> entry: counts.entrySet()) {
+			boards.add(GameState.unpack(entry.getKey()));
+			weights.add((double) entry.getValue() / samples);
+		}
+	}
+	
+	/**
+	 * Task computing the value of each move on one board (the moves which are not possible keep the value 0)
+	 */
+	private static class BoardTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+		
+		private final GameState board;
+		
+		BoardTask(GameState board) {
+			this.board = board.copy();
+		}
+		
+		protected double[] compute() {
+			double[] values = new double[7];
+			int positional = AI.positional(this.board);
+			for(int column = 0; column < 7; column++) {
+				int row = this.board.height(column);
+				if(this.board.putPiece(column)) {
+					values[column] = DeterminizationAI.alphaBeta(this.board, depth - 1, -Double.MAX_VALUE, Double.MAX_VALUE,
+							positional + AI.positionalDelta(this.board, row, column));
+					this.board.undoPiece(column);
+				}
+			}
+			return values;
+		}
+	}
+	
+	/**
+	 * Minimax search with alpha-beta pruning of a board, from the point of view of the player (red maximizes, yellow minimizes).
+	 * The moves are played and undone in place. A win is worth more than any heuristic value, and more when it happens sooner.
+	 * The positional part of the heuristic (see AI.positional) is updated with each move, so that only the threats are computed at the leaves.
+	 * @param state the board to search
+	 * @param remaining the number of moves left to search
+	 * @param alpha lower bound of the values of interest
+	 * @param beta upper bound of the values of interest
+	 * @param positional the value of AI.positional for the board
+	 * @return the value of the board
+	 */
+	private static double alphaBeta(GameState state, int remaining, double alpha, double beta, int positional) {
+		if(state.isGameOver()) {
+			return state.turn()? -WIN - remaining: WIN + remaining;
+		}
+		if(state.isFull()) {
+			return 0;
+		}
+		if(remaining == 0) {
+			return AI.heuristic_game(state, positional);
+		}
+		boolean max = !state.turn();
+		double best = max? -Double.MAX_VALUE: Double.MAX_VALUE;
+		for(int column: ORDER) {
+			int row = state.height(column);
+			if(!state.putPiece(column)) {
+				continue;
+			}
+			double value = DeterminizationAI.alphaBeta(state, remaining - 1, alpha, beta, positional + AI.positionalDelta(state, row, column));
+			state.undoPiece(column);
+			if(max) {
+				best = Math.max(best, value);
+				alpha = Math.max(alpha, value);
+			}
+			else {
+				best = Math.min(best, value);
+				beta = Math.min(beta, value);
+			}
+			if(alpha >= beta) {
+				break;
+			}
+		}
+		return best;
+	}
+}
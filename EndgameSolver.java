@@ -0,0 +1,173 @@
+/**
+ * Solver of the end of the game, used by AI.findNextMove when the belief state contains a single state with few empty squares.
+ * The state is searched until the end of the game, as if the board stayed visible: a win of the player is worth 1, a draw 0 and a loss -1.
+ * As the moves of the opponent are actually partly hidden, the values are only exact for a visible board, and the move found is not guaranteed to be optimal.
+ * The opponent is either modelled by ProbabilisticOpponentAI.policy (expectimax: the value of the opponent's turn is the expected value of its moves),
+ * or assumed to play its best move (worst case: the value is the minimum of its moves).
+ * The values of the states are kept in a direct-mapped transposition table indexed by their packed representation (see GameState.pack).
+ */
+public class EndgameSolver {
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+	
+	private static int maxEmpty = 12;
+	private static boolean worstCase = false;
+	private static long timeLimit = 50;
+	private static long deadline = Long.MAX_VALUE;
+	private static int nodes = 0;
+	private static long[] keys = new long[1 << 18];
+	private static float[] values = new float[1 << 18];
+	
+	/**
+	 * Set the parameters of the solver (the transposition table is cleared)
+	 * @param emptySquares maximal number of empty squares for the solver to be used, 0 to disable the solver
+	 * @param worst true to assume that the opponent plays its best move, false to use the model of the opponent
+	 * @param size number of entries of the transposition table, rounded up to a power of 2
+	 */
+	public static void setParameters(int emptySquares, boolean worst, int size) {
+		maxEmpty = emptySquares;
+		worstCase = worst;
+		int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		keys = new long[capacity];
+		values = new float[capacity];
+	}
+	
+	/**
+	 * Set the time after which findNextMove gives up (AI then falls back to its search)
+	 * @param millis time limit in milliseconds, 0 for no limit
+	 */
+	public static void setTimeLimit(long millis) {
+		timeLimit = millis;
+	}
+	
+	/**
+	 * Exception used to interrupt the solver when the deadline is reached
+	 */
+	private static class SolverTimeout extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	/**
+	 * Check if the solver can be used for a belief state
+	 * @param game the current belief state of the game
+	 * @return true if the belief state contains a single state, which is not over and has at most maxEmpty empty squares
+	 */
+	public static boolean applies(BeliefState game) {
+		if(maxEmpty <= 0 || game.size() != 1 || game.isGameOver() || game.isFull()) {
+			return false;
+		}
+		GameState state = game.iterator().next();
+		int empty = 0;
+		for(int row = 0; row < 6; row++) {
+			for(int column = 0; column < 7; column++) {
+				if(state.content(row, column) == 0) {
+					empty++;
+				}
+			}
+		}
+		return empty <= maxEmpty;
+	}
+	
+	/**
+	 * Determines the best move of the player for the state of a belief state (see applies), within the time limit (see setTimeLimit)
+	 * @param game the current belief state of the game, which must be the turn of the player
+	 * @return the index of the column with the best value, or -1 if the state was not solved in time
+	 */
+	public static int findNextMove(BeliefState game) {
+		return EndgameSolver.findNextMove(game, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Same as findNextMove, when the move must also be found before a given time
+	 * @param game the current belief state of the game, which must be the turn of the player
+	 * @param deadline time (as given by System.currentTimeMillis) at which the solver gives up, if the time limit is not reached before
+	 * @return the index of the column with the best value, or -1 if the state was not solved in time
+	 */
+	public static int findNextMove(BeliefState game, long deadline) {
+		// The search is run on a copy, which is left as it is when the search is interrupted
+		GameState state = game.iterator().next().copy();
+		EndgameSolver.deadline = timeLimit > 0? Math.min(deadline, System.currentTimeMillis() + timeLimit): deadline;
+		int best = -1;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		try {
+			for(int column: ORDER) {
+				if(state.putPiece(column)) {
+					double value = EndgameSolver.solve(state);
+					state.undoPiece(column);
+					if(value > bestValue) {
+						bestValue = value;
+						best = column;
+					}
+				}
+			}
+		} catch(SolverTimeout e) {
+			// The values stored in the transposition table are those of the states solved completely, they are kept
+			best = -1;
+		} finally {
+			EndgameSolver.deadline = Long.MAX_VALUE;
+		}
+		return best;
+	}
+	
+	/**
+	 * Compute the value of a state for the player, the board being visible. The state is modified during the search, but restored at the end.
+	 * @param state the state to solve
+	 * @return the value of the state, in [-1, 1]
+	 */
+	public static double solve(GameState state) {
+		if(state.isGameOver()) {
+			return state.turn()? -1: 1;
+		}
+		if(state.isFull()) {
+			return 0;
+		}
+		long key = state.pack();
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+		if(keys[slot] == key) {
+			return values[slot];
+		}
+		if((++nodes & 1023) == 0 && deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline) {
+			throw new SolverTimeout();
+		}
+		
+		double value;
+		if(!state.turn()) {
+			// The player plays its best move, and a win cannot be improved
+			value = -1;
+			for(int column: ORDER) {
+				if(state.putPiece(column)) {
+					value = Math.max(value, EndgameSolver.solve(state));
+					state.undoPiece(column);
+					if(value >= 1) {
+						break;
+					}
+				}
+			}
+		}
+		else if(worstCase) {
+			value = 1;
+			for(int column: ORDER) {
+				if(state.putPiece(column)) {
+					value = Math.min(value, EndgameSolver.solve(state));
+					state.undoPiece(column);
+					if(value <= -1) {
+						break;
+					}
+				}
+			}
+		}
+		else {
+			float[] policy = ProbabilisticOpponentAI.policy(state);
+			value = 0;
+			for(int column = 0; column < 7; column++) {
+				if(policy[column] > 0) {
+					state.putPiece(column);
+					value += policy[column] * EndgameSolver.solve(state);
+					state.undoPiece(column);
+				}
+			}
+		}
+		keys[slot] = key;
+		values[slot] = (float) value;
+		return value;
+	}
+}
@@ -1,22 +1,51 @@
 import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * Class which keep tracks of the state of the game (content of the board). In this class, all elements are visible (as in the standard version of connected 4).
+ * The board is stored as two bitboards (one per color). The square (row, column) corresponds to the bit column * 7 + row, the seventh bit of each column
+ * being always empty so that alignments can be detected with shifts without wrapping from one column to the next.
+ * Each state also maintains a 64-bit Zobrist key (ignoring the probability) which is updated incrementally when pieces are placed or the turn changes.
  */
 
 public class GameState implements Comparable<GameState> {
-	private byte[] board;
+	private static final int HEIGHT = 7;
+	private static final long BOTTOM = 0x40810204081L;
+	private static final long TOP = BOTTOM << 5;
+	private static final long PACKED_TURN = 1L << 49;
+	private static final long PACKED_GAME_OVER = 1L << 50;
+
+	private static final long[][] ZOBRIST_PIECES = new long[3][7 * HEIGHT];
+	private static final long ZOBRIST_TURN;
+	private static final long ZOBRIST_GAME_OVER;
+	static {
+		Random random = new Random(0x5EEDC4L);
+		for(int color = 1; color < 3; color++) {
+			for(int i = 0; i < 7 * HEIGHT; i++) {
+				ZOBRIST_PIECES[color][i] = random.nextLong();
+			}
+		}
+		ZOBRIST_TURN = random.nextLong();
+		ZOBRIST_GAME_OVER = random.nextLong();
+	}
+
+	private long yellow;
+	private long red;
+	private boolean turn;
+	private boolean gameOver;
+	private long key;
 	private float proba;
 	
 	/**
 	 * Constructor which construct a state corresponding to an empty game (no pieces on the board)
 	 */
 	public GameState() {
-		this.board = new byte[11];
+		this.yellow = 0;
+		this.red = 0;
+		this.turn = false;
+		this.gameOver = false;
+		this.key = 0;
 		this.proba = 1;
-		for(int i = 0; i < 11; i++) {
-			this.board[i] = Byte.MIN_VALUE;
-		}
 	}
 	
 	/**
@@ -25,13 +54,102 @@ public class GameState implements Comparable<GameState> {
 	 */
 	public GameState copy() {
 		GameState copy = new GameState();
-		for(int i = 0; i < 11; i++) {
-			copy.board[i] = this.board[i];
-		}
+		copy.yellow = this.yellow;
+		copy.red = this.red;
+		copy.turn = this.turn;
+		copy.gameOver = this.gameOver;
+		copy.key = this.key;
 		copy.proba = this.proba;
 		return copy;
 	}
 	
+	private static long bit(int row, int column) {
+		return 1L << (column * HEIGHT + row);
+	}
+	
+	/**
+	 * Construct the state obtained by mirroring the board left to right (the column c becoming the column 6 - c). The turn, the game over status and the probability are kept.
+	 * @return the mirrored state
+	 */
+	public GameState mirror() {
+		GameState mirror = this.copy();
+		mirror.yellow = GameState.mirror(this.yellow);
+		mirror.red = GameState.mirror(this.red);
+		mirror.computeKey();
+		return mirror;
+	}
+	
+	/**
+	 * Compute the Zobrist key of the state from scratch
+	 */
+	private void computeKey() {
+		this.key = (this.turn? ZOBRIST_TURN: 0) ^ (this.gameOver? ZOBRIST_GAME_OVER: 0);
+		for(long pieces = this.yellow; pieces != 0; pieces &= pieces - 1) {
+			this.key ^= ZOBRIST_PIECES[1][Long.numberOfTrailingZeros(pieces)];
+		}
+		for(long pieces = this.red; pieces != 0; pieces &= pieces - 1) {
+			this.key ^= ZOBRIST_PIECES[2][Long.numberOfTrailingZeros(pieces)];
+		}
+	}
+	
+	/**
+	 * Encode the state (without its probability) into a single long. For each column, the bits below the height of the column give the yellow pieces and the bit at the height is set.
+	 * The bits 49 and 50 hold the turn and the game over status. The encoding is never 0, and is unique as long as the columns are filled from the bottom (which is always the case when the pieces are placed with putPiece).
+	 * @return the packed representation of the state
+	 */
+	public long pack() {
+		return this.yellow | ((this.yellow | this.red) + BOTTOM) | (this.turn? PACKED_TURN: 0) | (this.gameOver? PACKED_GAME_OVER: 0);
+	}
+	
+	/**
+	 * Construct a state from its packed representation (see pack). The probability of the state is set to 1.
+	 * @param packed the packed representation of a state
+	 * @return the corresponding state
+	 */
+	public static GameState unpack(long packed) {
+		GameState state = new GameState();
+		for(int column = 0; column < 7; column++) {
+			long bits = (packed >>> (column * HEIGHT)) & 0x7FL;
+			long mask = Long.highestOneBit(bits) - 1;
+			state.yellow |= (bits & mask) << (column * HEIGHT);
+			state.red |= (~bits & mask) << (column * HEIGHT);
+		}
+		state.turn = (packed & PACKED_TURN) != 0;
+		state.gameOver = (packed & PACKED_GAME_OVER) != 0;
+		state.computeKey();
+		return state;
+	}
+	
+	/**
+	 * Mirror left to right a packed state (see pack) without decoding it
+	 * @param packed the packed representation of a state
+	 * @return the packed representation of the mirrored state
+	 */
+	public static long mirrorPacked(long packed) {
+		return GameState.mirror(packed & (PACKED_TURN - 1)) | (packed & ~(PACKED_TURN - 1));
+	}
+	
+	private static long mirror(long pieces) {
+		long mirror = 0;
+		for(int column = 0; column < 7; column++) {
+			mirror |= ((pieces >>> (column * HEIGHT)) & 0x7FL) << ((6 - column) * HEIGHT);
+		}
+		return mirror;
+	}
+	
+	/**
+	 * Returns the canonical form of the state with respect to the left-right symmetry of the board, i.e. the smallest of the state and its mirror according to compareTo.
+	 * A state and its mirror have the same canonical form.
+	 * @return this state if it is its own canonical form, and its mirror otherwise
+	 */
+	public GameState canonical() {
+		long yellow = GameState.mirror(this.yellow);
+		if(yellow < this.yellow || (yellow == this.yellow && GameState.mirror(this.red) < this.red)) {
+			return this.mirror();
+		}
+		return this;
+	}
+	
 	/**
 	 * Returns the content of a given square of the game
 	 * @param row index of the row (from 0 to 5)
@@ -39,10 +157,30 @@ public class GameState implements Comparable<GameState> {
 	 * @return 0 if the square is empty, 1 if it contains a yellow piece and 2 if it contains a red piece.
 	 */
 	public int content(int row, int column) {
-		int pos = row * 14 + column * 2;
-		int index = pos / 8;
-		pos = pos % 8;
-		return (((this.board[index] + 128) >> pos) % 4);
+		long bit = GameState.bit(row, column);
+		if((this.yellow & bit) != 0)
+			return 1;
+		if((this.red & bit) != 0)
+			return 2;
+		return 0;
+	}
+	
+	/**
+	 * Returns the pieces of one color as a bitboard: the square (row, column) corresponds to the bit column * 7 + row (see the description of the class)
+	 * @param color 1 for the yellow pieces, 2 for the red pieces
+	 * @return the bitboard of the pieces of the color
+	 */
+	public long bitboard(int color) {
+		return color == 1? this.yellow: this.red;
+	}
+	
+	/**
+	 * Returns the number of pieces in a column, i.e. the row where the next piece of the column is placed
+	 * @param column the index of the column
+	 * @return the number of pieces in the column (from 0 to 6)
+	 */
+	public int height(int column) {
+		return Long.numberOfTrailingZeros(~((this.yellow | this.red) >>> (column * HEIGHT)));
 	}
 	
 	/**
@@ -72,7 +210,7 @@ public class GameState implements Comparable<GameState> {
 	 * @return true if the column is full, and false otherwise
 	 */
 	public boolean isFull(int column) {
-		return this.content(5, column) != 0;
+		return ((this.yellow | this.red) & GameState.bit(5, column)) != 0;
 	}
 	
 	/**
@@ -80,19 +218,20 @@ public class GameState implements Comparable<GameState> {
 	 * @return true if all columns are full
 	 */
 	public boolean isFull() {
-		for(int column = 0; column < 7; column++) {
-			if(!this.isFull(column))
-				return false;
-		}
-		return true;
+		return ((this.yellow | this.red) & TOP) == TOP;
 	}
 	
 	public void set(int row, int column, int val) {
-		int pos = row * 14 + column * 2;
-		int index = pos / 8;
-		pos = pos % 8;
-		int delta = ((val % 4) - this.content(row, column)) << pos;
-		this.board[index] = (byte) (this.board[index] + delta);
+		int index = column * HEIGHT + row;
+		long bit = 1L << index;
+		this.key ^= ZOBRIST_PIECES[this.content(row, column)][index];
+		this.yellow &= ~bit;
+		this.red &= ~bit;
+		switch(val % 4) {
+		case 1: this.yellow |= bit; break;
+		case 2: this.red |= bit; break;
+		}
+		this.key ^= ZOBRIST_PIECES[this.content(row, column)][index];
 	}
 	
 	/**
@@ -100,85 +239,82 @@ public class GameState implements Comparable<GameState> {
 	 * @return
 	 */
 	public boolean isGameOver() {
-		return ((this.board[10] + 128) >> 4) % 2 > 0? true: false;
+		return this.gameOver;
 	}
 	
 	public boolean putPiece(int column) {
 		if(this.isGameOver())
 			return false;
-		if(this.content(5, column) != 0)
+		if(this.isFull(column))
 			return false;
-		int row = 0;
-		while(this.content(row, column) != 0)
-			row++;
+		int row = Long.numberOfTrailingZeros(~((this.yellow | this.red) >>> (column * HEIGHT)));
 		this.set(row, column, this.turn()? 1: 2);
 		if(this.checkWin(row, column)) {
-			this.board[10] += 16;
+			this.gameOver = true;
+			this.key ^= ZOBRIST_GAME_OVER;
 		}
 		else
 			this.changeTurn();
 		return true;
 	}
 	
+	/**
+	 * Remove the last piece played in a given column, restoring the turn and the game over status as they were before the call to putPiece.
+	 * This function must only be called to cancel a successful call to putPiece(column), which allows to probe moves without copying the state.
+	 * @param column the index of the column where the piece was played
+	 */
+	public void undoPiece(int column) {
+		int row = Long.numberOfTrailingZeros(~((this.yellow | this.red) >>> (column * HEIGHT))) - 1;
+		this.set(row, column, 0);
+		if(this.gameOver) {
+			this.gameOver = false;
+			this.key ^= ZOBRIST_GAME_OVER;
+		}
+		else
+			this.changeTurn();
+	}
 	
 	public boolean turn() {
-		return ((this.board[10] + 128) >> 5) % 2 > 0? true: false;
+		return this.turn;
 	}
 	
 	public void changeTurn() {
-		if(this.turn()) {
-			this.board[10] = (byte) (this.board[10] - 32);
-		}
-		else {
-			this.board[10] = (byte) (this.board[10] + 32);
-		}
+		this.turn = !this.turn;
+		this.key ^= ZOBRIST_TURN;
+	}
+	
+	/**
+	 * Returns the Zobrist key of the state. Two states with the same pieces, the same player to play and the same game over status have the same key, whatever their probability.
+	 * @return 64-bit hash key of the state
+	 */
+	public long key() {
+		return this.key;
 	}
 	
+	/**
+	 * check if the square (row, column), filled with a piece of the player whose turn it is, completes an alignment of four pieces
+	 * @param row index of the row
+	 * @param column index of the column
+	 * @return true if an alignment of four pieces of the current player goes through the square
+	 */
 	public boolean checkWin(int row, int column) {
-		int turn = this.turn()? 1: 2;
-		
-		int south = 0;
-		while(row - south > 0 && this.content(row - south - 1, column) == turn) {
-			south++;
-		}
-		if(south > 2) {
-			return true;
-		}
-		
-		int west = 0;
-		while(west < column && this.content(row, column - west - 1) == turn) {
-			west++;
-		}
-		int est = 0;
-		while(column + est < 6 && this.content(row, column + est + 1) == turn) {
-			est++;
-		}
-		if(est + west > 2) {
-			return true;
-		}
-		int southWest = 0;
-		while(southWest < row && southWest < column  && this.content(row - southWest - 1, column - southWest - 1) == turn) {
-			southWest++;
-		}
-		int northEst = 0;
-		while(row + northEst < 5 && column + northEst < 6 && this.content(row + northEst + 1, column + northEst + 1) == turn) {
-			northEst++;
-		}
-		if(southWest + northEst > 2) {
-			return true;
-		}
-		int southEst = 0;
-		while(southEst < row && column + southEst < 6 && this.content(row - southEst - 1, column + southEst + 1) == turn) {
-			southEst++;
-		}
-		int northWest = 0;
-		while(row + northWest < 5 && northWest < column  && this.content(row + northWest + 1, column - northWest - 1) == turn) {
-			northWest++;
-		}
-		if(northWest + southEst > 2) {
-			return true;
-		}
-		return false;
+		long bit = GameState.bit(row, column);
+		long pieces = (this.turn()? this.yellow: this.red) | bit;
+		return GameState.alignment(pieces, bit, 1) || GameState.alignment(pieces, bit, HEIGHT)
+				|| GameState.alignment(pieces, bit, HEIGHT - 1) || GameState.alignment(pieces, bit, HEIGHT + 1);
+	}
+	
+	/**
+	 * check if a set of pieces contains four aligned pieces in a given direction, one of them being a given square
+	 * @param pieces bitboard of the pieces of one player
+	 * @param bit bitboard containing only the square which must belong to the alignment
+	 * @param shift direction of the alignment (1 vertical, 7 horizontal, 6 and 8 diagonals)
+	 * @return true if such an alignment exists
+	 */
+	private static boolean alignment(long pieces, long bit, int shift) {
+		long m = pieces & (pieces >>> shift);
+		m &= m >>> (2 * shift);
+		return ((m | (m << shift) | (m << (2 * shift)) | (m << (3 * shift))) & bit) != 0;
 	}
 	
 	public String toString() {
@@ -199,14 +335,31 @@ public class GameState implements Comparable<GameState> {
 	}
 	
 	public int compareTo(GameState toCompare) {
-		for(int i = 0; i < 11; i++) {
-			if(this.board[i] > toCompare.board[i]) {
-				return 1;
-			}
-			if(this.board[i] < toCompare.board[i]) {
-				return -1;
-			}
+		if(this.yellow != toCompare.yellow) {
+			return this.yellow > toCompare.yellow? 1: -1;
+		}
+		if(this.red != toCompare.red) {
+			return this.red > toCompare.red? 1: -1;
+		}
+		if(this.turn != toCompare.turn) {
+			return this.turn? 1: -1;
+		}
+		if(this.gameOver != toCompare.gameOver) {
+			return this.gameOver? 1: -1;
 		}
 		return 0;
 	}
+	
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(!(o instanceof GameState))
+			return false;
+		GameState state = (GameState) o;
+		return this.yellow == state.yellow && this.red == state.red && this.turn == state.turn && this.gameOver == state.gameOver;
+	}
+	
+	public int hashCode() {
+		return (int) (this.key ^ (this.key >>> 32));
+	}
 }
@@ -0,0 +1,195 @@
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Anytime alternative to AI.findNextMove, based on Monte Carlo tree search over the belief states (in the style of POMCP).
+ * Each simulation draws a state from the current belief state according to the probabilities of the states, and plays it until the end of the game:
+ * inside the tree, the moves of the player are chosen with UCB1 and the moves of the opponent are drawn from ProbabilisticOpponentAI.policy,
+ * and outside the tree both players are simulated by a fast rollout policy (random moves for the player, the model for the opponent).
+ * The nodes of the tree correspond to histories of moves of the player and percepts, so that the states which give the same percepts share the same nodes.
+ * A win of the player is worth 1, a draw 1/2 and a loss 0. The quality of the move increases with the number of simulations.
+ */
+public class MonteCarloAI {
+	private static final int OPPONENT = 7;
+	
+	private static Random random = new Random(0);
+	private static double exploration = Math.sqrt(2);
+	
+	/**
+	 * Node of the tree, i.e. a history of moves and percepts. The statistics of the moves are only used when it is the turn of the player.
+	 */
+	private static class Node {
+		int visits = 0;
+		int[] moveVisits = new int[7];
+		double[] moveValues = new double[7];
+		HashMap<Long, Node> children = new HashMap<Long, Node>();
+	}
+	
+	/**
+	 * Set the parameters of the search
+	 * @param seed seed of the random generator used for the simulations
+	 * @param c exploration constant of UCB1
+	 */
+	public static void setParameters(long seed, double c) {
+		random = new Random(seed);
+		exploration = c;
+	}
+	
+	/**
+	 * Determines the next move to play by running simulations until the number of simulations or the deadline is reached (whichever comes first).
+	 * At least one simulation is run for each possible move: the number of simulations is raised to the number of possible moves, and these first simulations ignore the deadline.
+	 * @param game The current belief state of the game, which must be the turn of the player.
+	 * @param simulations The maximal number of simulations (at least the number of possible moves are run).
+	 * @param deadline Time (as given by System.currentTimeMillis) at which the search must end, Long.MAX_VALUE for no time limit.
+	 * @return The index of the column for the next move (the most simulated one).
+	 */
+	public static int findNextMove(BeliefState game, int simulations, long deadline) {
+		int size = game.size();
+		long[] states = new long[size];
+		double[] cumul = new double[size];
+		double sum = 0;
+		int n = 0;
+		for(GameState state: game) {
+			sum += state.proba();
+			states[n] = state.pack();
+			cumul[n++] = sum;
+		}
+		int minSimulations = game.getMoves().size();
+		simulations = Math.max(simulations, minSimulations);
+		long visible = game.visibleMask();
+		Node root = new Node();
+		for(int i = 0; i < simulations && (i < minSimulations || System.currentTimeMillis() < deadline); i++) {
+			double target = random.nextDouble() * sum;
+			// binary search of the first state whose cumulated probability exceeds the target
+			int index = 0;
+			int last = n - 1;
+			while(index < last) {
+				int middle = (index + last) >>> 1;
+				if(cumul[middle] <= target) {
+					index = middle + 1;
+				}
+				else {
+					last = middle;
+				}
+			}
+			MonteCarloAI.simulate(GameState.unpack(states[index]), root, visible);
+		}
+		int best = -1;
+		for(int column: game.getMoves()) {
+			if(best < 0 || root.moveVisits[column] > root.moveVisits[best]) {
+				best = column;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Run one simulation from a node of the tree
+	 * @param state the state drawn for the simulation (modified by the simulation)
+	 * @param node the node corresponding to the history leading to the state
+	 * @param visible the squares visible in the history
+	 * @return the value of the end of the game for the player
+	 */
+	private static double simulate(GameState state, Node node, long visible) {
+		if(state.isGameOver() || state.isFull()) {
+			return MonteCarloAI.value(state);
+		}
+		int column;
+		long key;
+		if(!state.turn()) {
+			column = MonteCarloAI.selectMove(state, node);
+			key = column;
+		}
+		else {
+			column = MonteCarloAI.sample(ProbabilisticOpponentAI.policy(state));
+			key = OPPONENT;
+		}
+		state.putPiece(column);
+		visible = BeliefState.percept(visible, state, column);
+		key |= visible << 3;
+		
+		double value;
+		Node child = node.children.get(key);
+		if(child == null) {
+			node.children.put(key, new Node());
+			value = MonteCarloAI.rollout(state);
+		}
+		else {
+			value = MonteCarloAI.simulate(state, child, visible);
+		}
+		node.visits++;
+		if((key & 7) != OPPONENT) {
+			node.moveVisits[column]++;
+			node.moveValues[column] += value;
+		}
+		return value;
+	}
+	
+	/**
+	 * Choose the move of the player with UCB1 (the moves never tried are chosen first)
+	 */
+	private static int selectMove(GameState state, Node node) {
+		int best = -1;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		double logVisits = Math.log(Math.max(1, node.visits));
+		for(int column = 0; column < 7; column++) {
+			if(state.isFull(column)) {
+				continue;
+			}
+			if(node.moveVisits[column] == 0) {
+				return column;
+			}
+			double value = node.moveValues[column] / node.moveVisits[column] + exploration * Math.sqrt(logVisits / node.moveVisits[column]);
+			if(value > bestValue) {
+				bestValue = value;
+				best = column;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Play the game until the end, with random moves for the player and the model of the opponent
+	 */
+	private static double rollout(GameState state) {
+		while(!state.isGameOver() && !state.isFull()) {
+			if(!state.turn()) {
+				int column = random.nextInt(7);
+				while(state.isFull(column)) {
+					column = (column + 1) % 7;
+				}
+				state.putPiece(column);
+			}
+			else {
+				state.putPiece(MonteCarloAI.sample(ProbabilisticOpponentAI.policy(state)));
+			}
+		}
+		return MonteCarloAI.value(state);
+	}
+	
+	private static int sample(float[] policy) {
+		double target = random.nextDouble();
+		double cumul = 0;
+		int last = -1;
+		for(int column = 0; column < 7; column++) {
+			if(policy[column] > 0) {
+				cumul += policy[column];
+				last = column;
+				if(target < cumul) {
+					return column;
+				}
+			}
+		}
+		return last;
+	}
+	
+	/**
+	 * Value of a finished game for the player (red): 1 for a win, 0 for a loss and 1/2 for a draw
+	 */
+	private static double value(GameState state) {
+		if(state.isGameOver()) {
+			return state.turn()? 0: 1;
+		}
+		return 0.5;
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Strategy used by the bounded search of AI to choose the order in which the moves of an OR node are evaluated. The better the first moves, the more the search is pruned.
+ */
+public interface MoveOrderer {
+	/**
+	 * Called at the beginning of each search (each call to findNextMove)
+	 */
+	public void newSearch();
+	
+	/**
+	 * Sort the moves of an OR node
+	 * @param belief the belief state of the OR node
+	 * @param moves the possible moves
+	 * @param depth the depth of the OR node
+	 * @return the moves in the order in which they should be evaluated
+	 */
+	public List<Integer> order(BeliefState belief, List<Integer> moves, int depth);
+	
+	/**
+	 * Called once the moves of an OR node are evaluated, with the move which had the best value
+	 * @param belief the belief state of the OR node
+	 * @param move the best move
+	 * @param depth the depth of the OR node
+	 * @param max_depth the maximum depth of the search
+	 */
+	public void update(BeliefState belief, int move, int depth, int max_depth);
+}
+
+/**
+ * Evaluate the moves by increasing index of column (the order of getMoves)
+ */
+class ColumnMoveOrderer implements MoveOrderer {
+	public void newSearch() {
+	}
+	
+	public List<Integer> order(BeliefState belief, List<Integer> moves, int depth) {
+		return moves;
+	}
+	
+	public void update(BeliefState belief, int move, int depth, int max_depth) {
+	}
+}
+
+/**
+ * Evaluate the central columns first, since they take part in more alignments
+ */
+class CenterMoveOrderer implements MoveOrderer {
+	static final int[] CENTER = {0, 1, 2, 3, 2, 1, 0};
+	
+	public void newSearch() {
+	}
+	
+	public List<Integer> order(BeliefState belief, List<Integer> moves, int depth) {
+		ArrayList<Integer> ordered = new ArrayList<Integer>(moves);
+		Collections.sort(ordered, new Comparator<Integer>() {
+			public int compare(Integer m1, Integer m2) {
+				return CENTER[m2] - CENTER[m1];
+			}
+		});
+		return ordered;
+	}
+	
+	public void update(BeliefState belief, int move, int depth, int max_depth) {
+	}
+}
+
+/**
+ * Combine three criteria: the best move found for the same belief state earlier in the search (for instance at the previous iteration of the iterative deepening) is evaluated first,
+ * then the moves are sorted by their history score, and then by their distance to the center.
+ * The history score of a move at a given depth is increased each time it is the best move of an OR node at this depth, by the square of the remaining depth, so that the moves
+ * which were good at the sibling nodes are tried first. The scores are halved at each new search.
+ */
+class HistoryMoveOrderer implements MoveOrderer {
+	/**
+	 * Best move of the belief states searched since the beginning of the search, indexed by their canonical fingerprint (the move of a mirrored belief state is stored mirrored)
+	 */
+	private final ConcurrentHashMap<Fingerprint, Integer> bestMoves = new ConcurrentHashMap<Fingerprint, Integer>();
+	private final long[][] history = new long[43][7];
+	
+	public void newSearch() {
+		this.bestMoves.clear();
+		for(long[] scores: this.history) {
+			for(int column = 0; column < 7; column++) {
+				scores[column] /= 2;
+			}
+		}
+	}
+	
+	public List<Integer> order(BeliefState belief, List<Integer> moves, int depth) {
+		long[] key = new long[2];
+		boolean mirrored = belief.canonicalFingerprint(key);
+		Integer move = this.bestMoves.get(new Fingerprint(key));
+		final Integer best = move != null && mirrored? Integer.valueOf(6 - move): move;
+		final long[] scores = this.history[Math.min(depth, 42)];
+		ArrayList<Integer> ordered = new ArrayList<Integer>(moves);
+		Collections.sort(ordered, new Comparator<Integer>() {
+			public int compare(Integer m1, Integer m2) {
+				if(best != null && !m1.equals(m2) && (m1.equals(best) || m2.equals(best))) {
+					return m1.equals(best)? -1: 1;
+				}
+				if(scores[m1] != scores[m2]) {
+					return scores[m1] > scores[m2]? -1: 1;
+				}
+				return CenterMoveOrderer.CENTER[m2] - CenterMoveOrderer.CENTER[m1];
+			}
+		});
+		return ordered;
+	}
+	
+	public void update(BeliefState belief, int move, int depth, int max_depth) {
+		long[] key = new long[2];
+		boolean mirrored = belief.canonicalFingerprint(key);
+		this.bestMoves.put(new Fingerprint(key), mirrored? 6 - move: move);
+		int remaining = max_depth - depth;
+		this.history[Math.min(depth, 42)][move] += remaining * remaining;
+	}
+}
@@ -0,0 +1,142 @@
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Book of the first moves of the player, used by AI.findNextMove before any search.
+ * The book is generated offline (see main) by searching deeply the belief states which can be reached in the first plies, when the player follows the book.
+ * The file contains a header (MAGIC and the number of entries) followed by the sorted entries. Each entry is a long made of the 61 high bits of the fingerprint
+ * of the canonical form of a belief state (see BeliefState.canonicalFingerprint) and the best move of the canonical form (3 low bits).
+ * The file is memory-mapped, and the entries are found by a binary search, so that the book is loaded instantly.
+ */
+public class OpeningBook {
+	private static final int MAGIC = 0x43344F42;
+	private static final long MOVE_MASK = 7;
+	
+	private static LongBuffer entries = null;
+	
+	/**
+	 * Map the book stored in a file. The book replaces the previous one.
+	 * @param path path of the file of the book
+	 * @throws IOException if the file cannot be read, or is not a book
+	 */
+	public static void open(String path) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+			// The mapping stays valid after the channel is closed
+			LongBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+			if(buffer.limit() < 1 || (int) (buffer.get(0) >>> 32) != MAGIC || (int) buffer.get(0) != buffer.limit() - 1) {
+				throw new IOException(path + " is not an opening book");
+			}
+			buffer.position(1);
+			entries = buffer.slice();
+		}
+	}
+	
+	/**
+	 * Remove the book: every move is searched
+	 */
+	public static void close() {
+		entries = null;
+	}
+	
+	/**
+	 * Search the move of a belief state in the book
+	 * @param game the current belief state of the game
+	 * @return the index of the column to play, or -1 if the belief state is not in the book
+	 */
+	public static int lookup(BeliefState game) {
+		LongBuffer book = entries;
+		if(book == null) {
+			return -1;
+		}
+		long[] key = new long[2];
+		boolean mirrored = game.canonicalFingerprint(key);
+		long target = key[0] & ~MOVE_MASK;
+		int low = 0, high = book.limit() - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			long entry = book.get(middle) & ~MOVE_MASK;
+			if(entry < target) {
+				low = middle + 1;
+			}
+			else if(entry > target) {
+				high = middle - 1;
+			}
+			else {
+				int move = (int) (book.get(middle) & MOVE_MASK);
+				move = mirrored? 6 - move: move;
+				return game.getMoves().contains(move)? move: -1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Generate a book: the belief states reached in the first plies are searched with AI.or_search_bounded (the player playing the move found,
+	 * and the opponent any move), and the book is written in a file.
+	 * @param args path of the file (opening.book by default), number of plies (8 by default) and depth of the search (4 by default)
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		String path = args.length > 0? args[0]: "opening.book";
+		int plies = args.length > 1? Integer.parseInt(args[1]): 8;
+		int depth = args.length > 2? Integer.parseInt(args[2]): 4;
+		
+		ArrayList<Long> book = new ArrayList<Long>();
+		ArrayList<BeliefState> level = new ArrayList<BeliefState>();
+		BeliefState start = new BeliefState();
+		start.add(new GameState());
+		level.add(start);
+		for(int ply = 0; ply < plies && !level.isEmpty(); ply += 2) {
+			ArrayList<BeliefState> next = new ArrayList<BeliefState>();
+			for(BeliefState belief: level) {
+				long[] key = new long[2];
+				boolean mirrored = belief.canonicalFingerprint(key);
+				int move = AI.maxIndex(AI.or_search_bounded(belief, 0, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+				book.add((key[0] & ~MOVE_MASK) | (mirrored? 6 - move: move));
+				
+				// The belief states which can follow the move of the player and the move of the opponent, as computed by filter
+				for(BeliefState afterMove: belief.putPiecePlayer(move)) {
+					afterMove.normalize();
+					if(afterMove.isGameOver() || afterMove.isFull()) {
+						continue;
+					}
+					for(BeliefState afterReply: afterMove.predict()) {
+						afterReply.normalize();
+						if(!afterReply.isGameOver() && !afterReply.isFull()) {
+							next.add(afterReply);
+						}
+					}
+				}
+			}
+			System.out.println("ply " + ply + ": " + level.size() + " belief states");
+			level = next;
+		}
+		
+		long[] sorted = new long[book.size()];
+		for(int i = 0; i < sorted.length; i++) {
+			sorted[i] = book.get(i);
+		}
+		Arrays.sort(sorted);
+		int n = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			// The same belief state may be reached in several ways
+			if(n == 0 || (sorted[n - 1] & ~MOVE_MASK) != (sorted[i] & ~MOVE_MASK)) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeLong(((long) MAGIC << 32) | n);
+			for(int i = 0; i < n; i++) {
+				out.writeLong(sorted[i]);
+			}
+		}
+		System.out.println(n + " belief states written to " + path);
+	}
+}
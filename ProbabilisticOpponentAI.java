@@ -1,30 +1,88 @@
 import java.util.ArrayList;
 
 public class ProbabilisticOpponentAI {
+	/**
+	 * Cache of the distributions computed by policy. The cache is direct-mapped: each state can only be stored in the slot given by its packed representation, and replaces the previous entry of this slot.
+	 * The entries are immutable, so that the cache can be read and written by several threads without locks.
+	 */
+	private static PolicyEntry[] policyCache = new PolicyEntry[1 << 16];
+	
+	private static class PolicyEntry {
+		final long key;
+		final float[] policy;
+		
+		PolicyEntry(long key, float[] policy) {
+			this.key = key;
+			this.policy = policy;
+		}
+	}
+	
+	/**
+	 * Set the number of distributions kept in the cache of policy (the cache is cleared)
+	 * @param size maximal number of entries, rounded up to a power of 2
+	 */
+	public static void setPolicyCacheSize(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		policyCache = new PolicyEntry[capacity];
+	}
+	
 	/**
 	 * Compute the next move of the opponent. The process is random, and the probability at use are based on the current state of the game. Note that the opponent has full access to the board.
 	 * @param game current state of the game (which is fully visible)
 	 * @return an index corresponding the column played by the opponent. If the game is full (no move available) then it return -1.
 	 */
 	public int decision(GameState game) {
+		// policy probes the moves on the state it is given, so the state of the caller is left untouched
+		float[] policy = ProbabilisticOpponentAI.policy(game.copy());
+		RandomSelector rs = new RandomSelector();
+		for(int column = 0; column < 7; column++) {
+			rs.add(policy[column]);
+		}
+		if(rs.somme == 0)
+			return -1;
+		return rs.randomChoice();
+	}
+	
+	/**
+	 * Compute the probability for the opponent to play each column. If a move wins the game, it is played. Otherwise, the moves which do not allow the player to win immediately are chosen with a probability proportional to heuristicValue.
+	 * If all moves allow the player to win, the moves leaving the least winning replies are chosen uniformly.
+	 * The distributions are cached (see setPolicyCacheSize), and the same array is returned for the same state: it must not be modified.
+	 * The moves are probed in place: the pieces are put on game and removed before returning, so game must not be read or modified by another thread during the call. Give a copy when it is shared (as decision does).
+	 * @param game current state of the game (which is modified during the computation, but restored at the end)
+	 * @return an array of 7 probabilities, 0 for the columns which are not played (all the probabilities are 0 when the game is over)
+	 */
+	public static float[] policy(GameState game) {
+		long key = game.pack();
+		PolicyEntry[] cache = policyCache;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (cache.length - 1);
+		PolicyEntry entry = cache[slot];
+		if(entry != null && entry.key == key) {
+			return entry.policy;
+		}
 		RandomSelector rs = new RandomSelector();
 		ArrayList<Integer> listColumn = new ArrayList<Integer>();
 		ArrayList<Integer> listGameOver = new ArrayList<Integer>();
 		int minGameOver = Integer.MAX_VALUE;
 		for(int column = 0; column < 7; column++) {
-			if(!game.isFull(column)) {
-				GameState copy = game.copy();
-				copy.putPiece(column);
-				if(copy.isGameOver())
-					return column;
+			if(game.putPiece(column)) {
+				if(game.isGameOver()) {
+					game.undoPiece(column);
+					listColumn.clear();
+					listColumn.add(column);
+					rs = new RandomSelector();
+					rs.add(1);
+					break;
+				}
 				int nbrGameOver = 0;
 				for(int i = 0; i < 7; i++) {
-					GameState copycopy = copy.copy();
-					copycopy.putPiece(i);
-					if(copycopy.isGameOver()) {
-						nbrGameOver++;
+					if(game.putPiece(i)) {
+						if(game.isGameOver()) {
+							nbrGameOver++;
+						}
+						game.undoPiece(i);
 					}
 				}
+				game.undoPiece(column);
 				if(nbrGameOver == 0) {
 					rs.add(ProbabilisticOpponentAI.heuristicValue(game, column));
 					listColumn.add(column);
@@ -43,16 +101,18 @@ public class ProbabilisticOpponentAI {
 				}
 			}
 		}
-		if(listColumn.size() > 0) {
-			//System.out.println(game.toString() + "\n" + rs.toString());
-			return listColumn.get(rs.randomChoice());
-		}
-		else {
-			for(int i = 0; i < listGameOver.size(); i++) {
+		if(listColumn.isEmpty()) {
+			for(int column: listGameOver) {
+				listColumn.add(column);
 				rs.add(1);
 			}
-			return listGameOver.get(rs.randomChoice());
 		}
+		float[] policy = new float[7];
+		for(int index = 0; index < listColumn.size(); index++) {
+			policy[listColumn.get(index)] = rs.probability(index);
+		}
+		cache[slot] = new PolicyEntry(key, policy);
+		return policy;
 	}
 	
 	/**